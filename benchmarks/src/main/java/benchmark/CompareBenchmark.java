@@ -0,0 +1,73 @@
+package benchmark;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.*;
+import service.transfer.*;
+import service.transfer.metrics.PhaseLatencies;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The skip decision for every file of a tree against an identical destination, the case of a sync with nothing to do
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompareBenchmark {
+
+    private static final long COMPARE_WINDOW_SIZE = 16L * 1024 * 1024;
+
+    @Param({"WIDE_SHALLOW", "MANY_TINY_FILES", "FEW_HUGE_FILES"})
+    private TreeShape shape;
+
+    @Param({"SIZE_AND_MTIME", "SIZE_AND_MTIME_THEN_CONTENT", "CONTENT"})
+    private CompareStrategy strategy;
+
+    private final List<FileEntry> sources = Lists.newArrayList();
+    private final List<Path> destinations = Lists.newArrayList();
+    private FileComparator fileComparator;
+    private TransferProcessResult transferResult;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path source = SyntheticTree.getOrCreate(shape);
+        Path destination = SyntheticTree.createEmptyFolder(shape, "compare-destination");
+        for (FileEntry file : new TreeListing(source).getFiles()) {
+            Path destinationFile = destination.resolve(source.relativize(file.getPath()));
+            Files.createDirectories(destinationFile.getParent());
+            Files.copy(file.getPath(), destinationFile, StandardCopyOption.COPY_ATTRIBUTES);
+            sources.add(file);
+            destinations.add(destinationFile);
+        }
+        fileComparator = new FileComparator(strategy,
+                new ContentComparator(COMPARE_WINDOW_SIZE, Runtime.getRuntime().availableProcessors()));
+        transferResult = new TransferProcessResult(new PhaseLatencies());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileComparator.close();
+    }
+
+    // Reads the destination attributes and compares, like a transfer thread does. Returns the number of equal files.
+    @Benchmark
+    public int compare() throws IOException {
+        int equalCount = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            Path destination = destinations.get(i);
+            BasicFileAttributes attributes = Files.readAttributes(destination, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if(fileComparator.compare(sources.get(i), destination, attributes, transferResult).isEqual()) {
+                equalCount++;
+            }
+        }
+        return equalCount;
+    }
+}
@@ -0,0 +1,89 @@
+package benchmark;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.*;
+import service.transfer.FileEntry;
+import service.transfer.TransferProcessResult;
+import service.transfer.copy.CopyMethod;
+import service.transfer.copy.ICopyEngine;
+import service.transfer.copy.RangeSplitCopyEngine;
+import service.transfer.metrics.PhaseLatencies;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Copies every file of a tree with each copy engine. The copied bytes are counted as well,
+// so the results show the copy throughput in bytes per second next to the time per copy.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyBenchmark {
+
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final long RANGE_SIZE = 64L * 1024 * 1024;
+    private static final int RANGE_THREADS = 4;
+
+    @Param({"MANY_TINY_FILES", "FEW_HUGE_FILES"})
+    private TreeShape shape;
+
+    @Param({"ZERO_COPY", "FILES_COPY", "RANGE_SPLIT"})
+    private String engine;
+
+    private final List<FileEntry> sources = Lists.newArrayList();
+    private final List<Path> destinations = Lists.newArrayList();
+    private Path destination;
+    private ICopyEngine copyEngine;
+    private TransferProcessResult progress;
+    private final AtomicBoolean cancel = new AtomicBoolean(false);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path source = SyntheticTree.getOrCreate(shape);
+        destination = SyntheticTree.createEmptyFolder(shape, "copy-destination");
+        for (FileEntry file : new TreeListing(source).getFiles()) {
+            Path destinationFile = destination.resolve(source.relativize(file.getPath()));
+            Files.createDirectories(destinationFile.getParent());
+            sources.add(file);
+            destinations.add(destinationFile);
+        }
+        copyEngine = createEngine();
+        progress = new TransferProcessResult(new PhaseLatencies());
+    }
+
+    private ICopyEngine createEngine() {
+        if("RANGE_SPLIT".equals(engine)) {
+            // Every file is split, whatever its size
+            return new RangeSplitCopyEngine(CopyMethod.ZERO_COPY.createEngine(CHUNK_SIZE), 0, RANGE_SIZE, RANGE_THREADS);
+        }
+        return CopyMethod.valueOf(engine).createEngine(CHUNK_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        copyEngine.close();
+        SyntheticTree.delete(destination);
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class CopiedBytes {
+        public long bytes;
+    }
+
+    // Overwrites the destination on every call, the engines handle a file that's already there
+    @Benchmark
+    public void copy(CopiedBytes copiedBytes) throws IOException {
+        for (int i = 0; i < sources.size(); i++) {
+            FileEntry source = sources.get(i);
+            copyEngine.copy(source, destinations.get(i), null, progress, cancel);
+            copiedBytes.bytes += source.getSize();
+        }
+    }
+}
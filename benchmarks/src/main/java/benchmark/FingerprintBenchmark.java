@@ -0,0 +1,48 @@
+package benchmark;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import service.transfer.FileEntry;
+import service.transfer.FolderFingerprint;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The cost of fingerprinting every folder of a tree that has already been listed
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FingerprintBenchmark {
+
+    @Param({"WIDE_SHALLOW", "DEEP_NARROW", "MANY_TINY_FILES"})
+    private TreeShape shape;
+
+    private TreeListing listing;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        listing = new TreeListing(SyntheticTree.getOrCreate(shape));
+    }
+
+    @Benchmark
+    public void fingerprint(Blackhole blackhole) {
+        for (List<FileEntry> entries : listing.getFolders()) {
+            Hasher hasher = FolderFingerprint.newHasher();
+            for (FileEntry entry : entries) {
+                if(entry.isDirectory()) {
+                    FolderFingerprint.appendFolder(hasher, entry, FolderFingerprint.EMPTY);
+                } else {
+                    FolderFingerprint.appendFile(hasher, entry);
+                }
+            }
+            HashCode fingerprint = hasher.hash();
+            blackhole.consume(fingerprint);
+        }
+    }
+}
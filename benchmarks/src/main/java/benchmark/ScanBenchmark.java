@@ -0,0 +1,50 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import service.log.Log;
+import service.transfer.FolderAndHashcode;
+import service.transfer.PathProcessResult;
+import service.transfer.TransferService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// A full scan of the source tree: listing, fingerprinting and queueing every folder
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmark {
+
+    @Param({"WIDE_SHALLOW", "DEEP_NARROW", "MANY_TINY_FILES"})
+    private TreeShape shape;
+
+    @Param({"1", "8"})
+    private int scanParallelism;
+
+    private File source;
+    private TransferService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = SyntheticTree.getOrCreate(shape).toFile();
+        Log.clearSinks();
+        service = new TransferService();
+        service.getSettings().setScanParallelism(scanParallelism);
+    }
+
+    // Returns the number of files queued
+    @Benchmark
+    public long scan() {
+        PathProcessResult result = service.startProcessingRootFolder(source);
+        long fileCount = 0;
+        FolderAndHashcode folder;
+        while ((folder = result.nextFolder(0)) != null) {
+            fileCount += folder.getFiles().size();
+        }
+        return fileCount;
+    }
+}
@@ -0,0 +1,90 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Builds the source trees for the benchmarks under the temp folder. The content, names and modified times
+// come from a fixed seed, so every run and every release measures exactly the same tree.
+// A finished tree is kept and reused, they take a while to write.
+public class SyntheticTree {
+
+    public static final String ROOT_PROPERTY = "benchmark.root";
+    private static final String COMPLETE_MARKER = ".complete";
+    private static final long BASE_MODIFIED_MILLIS = 1_600_000_000_000L;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private SyntheticTree() {
+    }
+
+    // The folder all the benchmark trees go in, -Dbenchmark.root=... to put them somewhere else
+    public static Path getBaseFolder() {
+        return Paths.get(System.getProperty(ROOT_PROPERTY, System.getProperty("java.io.tmpdir")), "filetransfer-benchmark");
+    }
+
+    // Returns the source folder for the shape, writing it first if needed
+    public static synchronized Path getOrCreate(TreeShape shape) throws IOException {
+        Path tree = getBaseFolder().resolve(shape.name().toLowerCase());
+        Path source = tree.resolve("source");
+        if(Files.exists(tree.resolve(COMPLETE_MARKER))) {
+            return source;
+        }
+        // Whatever is there was left half written
+        delete(tree);
+        Files.createDirectories(source);
+        Random random = new Random(shape.ordinal());
+        writeFolder(shape, source, 0, random, new long[1]);
+        Files.createFile(tree.resolve(COMPLETE_MARKER));
+        return source;
+    }
+
+    // A new empty folder next to the tree's source, for the benchmarks that write
+    public static Path createEmptyFolder(TreeShape shape, String name) throws IOException {
+        Path folder = getBaseFolder().resolve(shape.name().toLowerCase()).resolve(name);
+        delete(folder);
+        return Files.createDirectories(folder);
+    }
+
+    public static void delete(Path folder) throws IOException {
+        if(!Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void writeFolder(TreeShape shape, Path folder, int level, Random random, long[] fileNumber) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(WRITE_BUFFER_SIZE, Math.max(1, shape.getFileSize()))];
+        for (int i = 0; i < shape.getFilesPerFolder(); i++) {
+            Path file = folder.resolve(String.format("file-%05d.bin", i));
+            writeFile(file, shape.getFileSize(), random, buffer);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(BASE_MODIFIED_MILLIS + fileNumber[0]++ * 1000));
+        }
+        if(level >= shape.getDepth()) {
+            return;
+        }
+        for (int i = 0; i < shape.getSubfoldersPerFolder(); i++) {
+            Path subfolder = Files.createDirectory(folder.resolve(String.format("folder-%03d", i)));
+            writeFolder(shape, subfolder, level + 1, random, fileNumber);
+        }
+    }
+
+    private static void writeFile(Path file, long size, Random random, byte[] buffer) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW)) {
+            long remaining = size;
+            while (remaining > 0) {
+                int count = (int) Math.min(buffer.length, remaining);
+                random.nextBytes(buffer);
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package benchmark;
+
+import com.google.common.collect.Lists;
+import service.transfer.DirectoryLister;
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+// Every folder of a tree listed up front, so a benchmark can leave the listing out of what it measures
+public class TreeListing {
+
+    private final List<List<FileEntry>> folders = Lists.newArrayList();
+    private final List<FileEntry> files = Lists.newArrayList();
+
+    public TreeListing(Path root) throws IOException {
+        listFolder(root);
+    }
+
+    private void listFolder(Path folder) throws IOException {
+        List<FileEntry> entries = DirectoryLister.list(folder, Lists.newArrayList());
+        folders.add(entries);
+        for (FileEntry entry : entries) {
+            if(entry.isDirectory()) {
+                listFolder(entry.getPath());
+            } else if(entry.isFile()) {
+                files.add(entry);
+            }
+        }
+    }
+
+    // The entries of each folder, the parents before their subfolders
+    public List<List<FileEntry>> getFolders() {
+        return folders;
+    }
+
+    public List<FileEntry> getFiles() {
+        return files;
+    }
+}
@@ -0,0 +1,41 @@
+package benchmark;
+
+// The synthetic source trees the benchmarks run against
+public enum TreeShape {
+    // 50 folders under the root with 200 small files each
+    WIDE_SHALLOW(50, 1, 200, 4 * 1024),
+    // A chain of 200 nested folders with a few small files each
+    DEEP_NARROW(1, 200, 5, 4 * 1024),
+    // 111 folders with 250 tiny files each
+    MANY_TINY_FILES(10, 2, 250, 256),
+    // A handful of very large files in the root
+    FEW_HUGE_FILES(0, 0, 4, 256L * 1024 * 1024);
+
+    private final int subfoldersPerFolder;
+    private final int depth;
+    private final int filesPerFolder;
+    private final long fileSize;
+
+    TreeShape(int subfoldersPerFolder, int depth, int filesPerFolder, long fileSize) {
+        this.subfoldersPerFolder = subfoldersPerFolder;
+        this.depth = depth;
+        this.filesPerFolder = filesPerFolder;
+        this.fileSize = fileSize;
+    }
+
+    public int getSubfoldersPerFolder() {
+        return subfoldersPerFolder;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getFilesPerFolder() {
+        return filesPerFolder;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+}
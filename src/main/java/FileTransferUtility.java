@@ -1,7 +1,12 @@
+import cli.CommandLineRunner;
 import ui.WindowFrame;
 
 public class FileTransferUtility {
     public static void main(String[] args) {
+        // With arguments it runs one transfer from the command line, without a window
+        if(args.length > 0) {
+            System.exit(CommandLineRunner.run(args));
+        }
         javax.swing.SwingUtilities.invokeLater(() -> WindowFrame.getInstance());
     }
 }
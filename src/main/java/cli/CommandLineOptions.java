@@ -0,0 +1,426 @@
+package cli;
+
+import service.transfer.CompareStrategy;
+import service.transfer.filter.FilterRules;
+import service.transfer.schedule.SchedulingPolicy;
+
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// The options of a transfer run from the command line, in "--name value" or "--name=value" form
+public class CommandLineOptions {
+
+    public final static String USAGE = String.join(System.lineSeparator(),
+            "Usage: FileTransferUtility --source <folder> --destination <folder> [options]",
+            "  --source <folder>          Folder to copy",
+            "  --destination <folder>     Folder to copy it into, it needs to exist. Given more than once, the source is read",
+            "                             once and written to all of them",
+            "  --fan-out-stall <millis>   How long a slow destination may hold the others up before it copies on its own",
+            "  --scan-threads <n>         Threads scanning the source",
+            "  --transfer-threads <n>     Threads copying files",
+            "  --copies-per-device <n>    Most copies at once on one device, 0 for no limit",
+            "  --virtual-threads          Give every folder listing and file copy its own virtual thread, needs Java 21",
+            "  --tasks-per-device <n>     Most virtual thread tasks at once on one device",
+            "  --schedule <policy>        FIFO, SMALL_FIRST, LARGE_FIRST, LOCALITY, SHALLOW_FIRST or DEEP_FIRST",
+            "  --work-stealing            Give every transfer thread its own queue of folders",
+            "  --max-bytes-per-second <n> Most bytes read a second for copies, with an optional K, M or G, 0 for no limit",
+            "  --max-files-per-second <n> Most files transferred a second, 0 for no limit",
+            "  --adaptive-threads         Copy on as many of the transfer threads as keeps the throughput up",
+            "  --compare <strategy>       SIZE_AND_MTIME, SIZE_AND_MTIME_THEN_CONTENT or CONTENT",
+            "  --index-destination        List the whole destination up front instead of checking every file",
+            "  --exclude <glob>           Leave out the files and folders matching it, can be given more than once",
+            "  --include <glob>           Only take the files matching it, or one of the other includes",
+            "  --exclude-regex <regex>    Leave out the paths below the source folder it's found in",
+            "  --include-regex <regex>    Only take the files whose path below the source folder it's found in",
+            "  --min-size <n>             Leave out smaller files, with an optional K, M or G",
+            "  --max-size <n>             Leave out larger files, with an optional K, M or G",
+            "  --max-age <duration>       Leave out files modified longer ago, such as 30d, 12h, 15m or 90s",
+            "  --min-age <duration>       Leave out files modified more recently",
+            "  --dedup                    Copy files with the same content once, the others become hard links to it",
+            "  --bundle                   Write the files into a few large segment files at the destination",
+            "  --bundle-segment-size <n>  Size a bundle segment is finished at, with an optional K, M or G",
+            "  --extract                  Write the files in the bundle at --source out into --destination",
+            "  --watch                    Keep syncing the changes to the source until stopped",
+            "  --stats <file>             Write the transfer statistics as JSON to this file when done",
+            "  --progress                 Log the progress every few seconds",
+            "  --debug                    Log debug messages",
+            "  --quiet                    Don't log anything",
+            "  --help                     Show this message",
+            "While it runs, a line such as \"max-bytes-per-second 50M\" on the standard input changes a limit.",
+            "Without any options the window opens instead.");
+
+    private File source;
+    private final List<File> destinations = Lists.newArrayList();
+    private Integer scanThreads;
+    private Integer transferThreads;
+    private Integer copiesPerDevice;
+    private boolean isVirtualThreads;
+    private Integer tasksPerDevice;
+    private CompareStrategy compareStrategy;
+    private SchedulingPolicy schedulingPolicy;
+    private boolean isWorkStealing;
+    private Long maxBytesPerSecond;
+    private Integer maxFilesPerSecond;
+    private boolean isAdaptiveThreads;
+    private File statsFile;
+    private boolean isWatch;
+    private boolean isIndexDestination;
+    private final FilterRules filterRules = new FilterRules();
+    private boolean isDedup;
+    private Long fanOutStallMillis;
+    private boolean isBundle;
+    private Long bundleSegmentSize;
+    private boolean isExtract;
+    private boolean isProgress;
+    private boolean isDebug;
+    private boolean isQuiet;
+    private boolean isHelp;
+
+    // Throws an IllegalArgumentException saying what's wrong with the arguments
+    public static CommandLineOptions parse(String[] args) {
+        CommandLineOptions options = new CommandLineOptions();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            String value = null;
+            int equalsIndex = name.indexOf('=');
+            if(equalsIndex > 0) {
+                value = name.substring(equalsIndex + 1);
+                name = name.substring(0, equalsIndex);
+            }
+
+            switch (name) {
+                case "--help":
+                case "-h":
+                    options.isHelp = true;
+                    continue;
+                case "--progress":
+                    options.isProgress = true;
+                    continue;
+                case "--debug":
+                    options.isDebug = true;
+                    continue;
+                case "--index-destination":
+                    options.isIndexDestination = true;
+                    continue;
+                case "--dedup":
+                    options.isDedup = true;
+                    continue;
+                case "--bundle":
+                    options.isBundle = true;
+                    continue;
+                case "--extract":
+                    options.isExtract = true;
+                    continue;
+                case "--work-stealing":
+                    options.isWorkStealing = true;
+                    continue;
+                case "--adaptive-threads":
+                    options.isAdaptiveThreads = true;
+                    continue;
+                case "--watch":
+                    options.isWatch = true;
+                    continue;
+                case "--virtual-threads":
+                    options.isVirtualThreads = true;
+                    continue;
+                case "--quiet":
+                    options.isQuiet = true;
+                    continue;
+                default:
+                    break;
+            }
+
+            // Everything else takes a value
+            if(value == null) {
+                if(i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing a value for " + name);
+                }
+                value = args[++i];
+            }
+            switch (name) {
+                case "--source":
+                    options.source = new File(value);
+                    break;
+                case "--destination":
+                    options.destinations.add(new File(value));
+                    break;
+                case "--scan-threads":
+                    options.scanThreads = parseCount(name, value);
+                    break;
+                case "--transfer-threads":
+                    options.transferThreads = parseCount(name, value);
+                    break;
+                case "--copies-per-device":
+                    options.copiesPerDevice = parseCount(name, value);
+                    break;
+                case "--tasks-per-device":
+                    options.tasksPerDevice = parseCount(name, value);
+                    break;
+                case "--compare":
+                    options.compareStrategy = parseCompareStrategy(value);
+                    break;
+                case "--max-bytes-per-second":
+                    options.maxBytesPerSecond = parseSize(name, value);
+                    break;
+                case "--max-files-per-second":
+                    options.maxFilesPerSecond = parseCount(name, value);
+                    break;
+                case "--bundle-segment-size":
+                    options.bundleSegmentSize = parseSize(name, value);
+                    break;
+                case "--schedule":
+                    options.schedulingPolicy = parseSchedulingPolicy(value);
+                    break;
+                case "--stats":
+                    options.statsFile = new File(value);
+                    break;
+                case "--fan-out-stall":
+                    options.fanOutStallMillis = (long) parseCount(name, value);
+                    break;
+                case "--exclude":
+                    options.filterRules.addExclude(value);
+                    break;
+                case "--include":
+                    options.filterRules.addInclude(value);
+                    break;
+                case "--exclude-regex":
+                    options.filterRules.addExcludeRegex(parseRegex(name, value));
+                    break;
+                case "--include-regex":
+                    options.filterRules.addIncludeRegex(parseRegex(name, value));
+                    break;
+                case "--min-size":
+                    options.filterRules.setMinSize(parseSize(name, value));
+                    break;
+                case "--max-size":
+                    options.filterRules.setMaxSize(parseSize(name, value));
+                    break;
+                case "--max-age":
+                    options.filterRules.setMaxAgeMillis(parseDuration(name, value));
+                    break;
+                case "--min-age":
+                    options.filterRules.setMinAgeMillis(parseDuration(name, value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+
+        if(!options.isHelp && (options.source == null || options.destinations.isEmpty())) {
+            throw new IllegalArgumentException("Both --source and --destination are needed");
+        }
+        if(options.destinations.size() > 1 && (options.isWatch || options.isExtract || options.isBundle || options.isDedup
+                || options.isIndexDestination)) {
+            throw new IllegalArgumentException("--watch, --extract, --bundle, --dedup and --index-destination take one --destination");
+        }
+        // The fan-out writers aren't run as device limited tasks or gated by the adaptive thread count
+        if(options.destinations.size() > 1 && (options.copiesPerDevice != null || options.isAdaptiveThreads
+                || options.isVirtualThreads || options.tasksPerDevice != null)) {
+            throw new IllegalArgumentException("--copies-per-device, --adaptive-threads, --virtual-threads and --tasks-per-device take one --destination");
+        }
+        return options;
+    }
+
+    // A number of bytes, with an optional K, M or G
+    static long parseSize(String name, String value) {
+        String number = value.trim().toUpperCase();
+        long multiplier = 1;
+        if(number.endsWith("K")) {
+            multiplier = 1024;
+        } else if(number.endsWith("M")) {
+            multiplier = 1024 * 1024;
+        } else if(number.endsWith("G")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if(multiplier > 1) {
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            long size = Long.parseLong(number);
+            if(size < 0) {
+                throw new IllegalArgumentException(name + " can't be negative: " + value);
+            }
+            return size * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " needs a number: " + value);
+        }
+    }
+
+    // A number of seconds, or of minutes, hours or days with an m, h or d after it
+    static long parseDuration(String name, String value) {
+        String number = value.trim().toLowerCase();
+        TimeUnit unit = TimeUnit.SECONDS;
+        if(number.endsWith("d")) {
+            unit = TimeUnit.DAYS;
+        } else if(number.endsWith("h")) {
+            unit = TimeUnit.HOURS;
+        } else if(number.endsWith("m")) {
+            unit = TimeUnit.MINUTES;
+        }
+        if(number.endsWith("d") || number.endsWith("h") || number.endsWith("m") || number.endsWith("s")) {
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            long duration = Long.parseLong(number);
+            if(duration < 0) {
+                throw new IllegalArgumentException(name + " can't be negative: " + value);
+            }
+            return unit.toMillis(duration);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " needs a duration: " + value);
+        }
+    }
+
+    // Checked here so a mistake is reported with the usage
+    private static String parseRegex(String name, String value) {
+        try {
+            Pattern.compile(value);
+            return value;
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException(name + " isn't a valid regular expression: " + value);
+        }
+    }
+
+    static int parseCount(String name, String value) {
+        try {
+            int count = Integer.parseInt(value);
+            if(count < 0) {
+                throw new IllegalArgumentException(name + " can't be negative: " + value);
+            }
+            return count;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " needs a number: " + value);
+        }
+    }
+
+    private static CompareStrategy parseCompareStrategy(String value) {
+        try {
+            return CompareStrategy.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown compare strategy: " + value);
+        }
+    }
+
+    private static SchedulingPolicy parseSchedulingPolicy(String value) {
+        try {
+            return SchedulingPolicy.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown scheduling policy: " + value);
+        }
+    }
+
+    public File getSource() {
+        return source;
+    }
+
+    // The first one
+    public File getDestination() {
+        return destinations.isEmpty() ? null : destinations.get(0);
+    }
+
+    public List<File> getDestinations() {
+        return destinations;
+    }
+
+    public Long getFanOutStallMillis() {
+        return fanOutStallMillis;
+    }
+
+    // Null when not given, the settings keep their default
+    public Integer getScanThreads() {
+        return scanThreads;
+    }
+
+    public Integer getTransferThreads() {
+        return transferThreads;
+    }
+
+    public Integer getCopiesPerDevice() {
+        return copiesPerDevice;
+    }
+
+    public boolean isVirtualThreads() {
+        return isVirtualThreads;
+    }
+
+    public Integer getTasksPerDevice() {
+        return tasksPerDevice;
+    }
+
+    public CompareStrategy getCompareStrategy() {
+        return compareStrategy;
+    }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    public boolean isWorkStealing() {
+        return isWorkStealing;
+    }
+
+    public Long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public Integer getMaxFilesPerSecond() {
+        return maxFilesPerSecond;
+    }
+
+    public boolean isAdaptiveThreads() {
+        return isAdaptiveThreads;
+    }
+
+    public File getStatsFile() {
+        return statsFile;
+    }
+
+    public boolean isIndexDestination() {
+        return isIndexDestination;
+    }
+
+    public FilterRules getFilterRules() {
+        return filterRules;
+    }
+
+    public boolean isDedup() {
+        return isDedup;
+    }
+
+    public boolean isBundle() {
+        return isBundle;
+    }
+
+    public Long getBundleSegmentSize() {
+        return bundleSegmentSize;
+    }
+
+    public boolean isExtract() {
+        return isExtract;
+    }
+
+    public boolean isWatch() {
+        return isWatch;
+    }
+
+    public boolean isProgress() {
+        return isProgress;
+    }
+
+    public boolean isDebug() {
+        return isDebug;
+    }
+
+    public boolean isQuiet() {
+        return isQuiet;
+    }
+
+    public boolean isHelp() {
+        return isHelp;
+    }
+}
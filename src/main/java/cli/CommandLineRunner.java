@@ -0,0 +1,321 @@
+package cli;
+
+import com.google.common.collect.Lists;
+import service.ServiceFacade;
+import service.log.Log;
+import service.transfer.*;
+import service.transfer.throttle.TransferThrottle;
+import service.validation.PathValidationResult;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Runs one transfer without the window, for cron jobs, timers and servers without a display.
+// Only the service layer is used, so AWT is never loaded.
+public class CommandLineRunner {
+
+    public final static int EXIT_OK = 0;
+    public final static int EXIT_USAGE = 1;
+    public final static int EXIT_INVALID_PATH = 2;
+    public final static int EXIT_CANCELLED = 3;
+    public final static int EXIT_STATS_FAILED = 4;
+    public final static int EXIT_WATCH_FAILED = 5;
+    public final static int EXIT_EXTRACT_FAILED = 6;
+
+    private static final long WAIT_MILLIS = 100;
+    private static final long PROGRESS_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    // How long an interrupted run gets to write its manifest and journal
+    private static final long SHUTDOWN_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final CommandLineOptions options;
+    private volatile TransferProcessResult transferResult;
+    private volatile boolean isInterrupted;
+    // Counted down once the run has written everything, the shutdown hook waits for it
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    public CommandLineRunner(CommandLineOptions options) {
+        this.options = options;
+    }
+
+    public static int run(String[] args) {
+        CommandLineOptions options;
+        try {
+            options = CommandLineOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(CommandLineOptions.USAGE);
+            return EXIT_USAGE;
+        }
+        if(options.isHelp()) {
+            System.out.println(CommandLineOptions.USAGE);
+            return EXIT_OK;
+        }
+
+        int exitCode = new CommandLineRunner(options).run();
+        Log.flush();
+        return exitCode;
+    }
+
+    public int run() {
+        try {
+            return transfer();
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private int transfer() {
+        if(options.isQuiet()) {
+            Log.clearSinks();
+        }
+        Log.setDebugEnabled(options.isDebug());
+
+        File source = validate(options.getSource());
+        List<File> destinations = Lists.newArrayListWithCapacity(options.getDestinations().size());
+        for (File destinationOption : options.getDestinations()) {
+            File destination = validate(destinationOption);
+            if(destination == null) {
+                return EXIT_INVALID_PATH;
+            }
+            destinations.add(destination);
+        }
+        if(source == null) {
+            return EXIT_INVALID_PATH;
+        }
+        applySettings(getFacade().getSettings());
+        if(options.isExtract()) {
+            return extract(source, destinations.get(0));
+        }
+
+        // Ctrl+C or a kill stops the transfer cleanly, so the next run can resume it
+        Thread shutdownHook = new Thread(this::stopOnShutdown, "cli-shutdown-thread");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        startInputThread();
+
+        if(options.isWatch()) {
+            return watch(source, destinations);
+        }
+
+        PathProcessResult result = getFacade().startProcessingRootFolder(source, destinations);
+        transferResult = getFacade().startTransferProcess(source, destinations, result);
+        if(transferResult == null) {
+            return EXIT_CANCELLED;
+        }
+        waitForTransfer(result);
+
+        int exitCode = isInterrupted ? EXIT_CANCELLED : EXIT_OK;
+        if(!isInterrupted) {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }
+        return writeStats(source, destinations, exitCode, new TransferMetrics(result, transferResult));
+    }
+
+    // Runs until stopped, stopping is the normal way out so it still counts as a success
+    // Only ever one destination
+    private int watch(File source, List<File> destinations) {
+        ContinuousSync sync = getFacade().startContinuousSync(source, destinations.get(0));
+        try {
+            while (!sync.isDone()) {
+                Thread.sleep(WAIT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(sync.isFailed()) {
+            return EXIT_WATCH_FAILED;
+        }
+        Log.info("Stopped watching after %s passes", sync.getPassCount());
+        if(sync.getTransferResult() == null) {
+            return EXIT_OK;
+        }
+        return writeStats(source, destinations, EXIT_OK, new TransferMetrics(sync.getResult(), sync.getTransferResult()));
+    }
+
+    // The source is the destination of the bundled transfers, the files are written out into the destination
+    private int extract(File bundleDestination, File target) {
+        try {
+            long extractedCount = getFacade().extractBundle(bundleDestination, target);
+            Log.info("Extracted %s files into: %s", extractedCount, target);
+            return EXIT_OK;
+        } catch (IOException e) {
+            System.err.println("Couldn't extract the bundle in: " + bundleDestination);
+            e.printStackTrace();
+            return EXIT_EXTRACT_FAILED;
+        }
+    }
+
+    private File validate(File folder) {
+        PathValidationResult result = getFacade().validatePath(folder.getPath());
+        if(result.isNotValid()) {
+            for(String msg : result.getErrorMessages()){
+                System.err.println(msg);
+            }
+            return null;
+        }
+        return result.getFile();
+    }
+
+    private void applySettings(TransferSettings settings) {
+        if(options.getScanThreads() != null) {
+            settings.setScanParallelism(options.getScanThreads());
+        }
+        if(options.getTransferThreads() != null) {
+            settings.setTransferThreads(options.getTransferThreads());
+        }
+        if(options.getCopiesPerDevice() != null) {
+            settings.setMaxConcurrentCopiesPerDevice(options.getCopiesPerDevice());
+        }
+        if(options.isIndexDestination()) {
+            settings.setIndexDestination(true);
+        }
+        if(!options.getFilterRules().isEmpty()) {
+            settings.setFilterRules(options.getFilterRules());
+        }
+        if(options.getFanOutStallMillis() != null) {
+            settings.setFanOutStallMillis(options.getFanOutStallMillis());
+        }
+        if(options.isDedup()) {
+            settings.setDedup(true);
+        }
+        if(options.isBundle()) {
+            settings.setBundleDestination(true);
+        }
+        if(options.getBundleSegmentSize() != null) {
+            settings.setBundleSegmentSize(options.getBundleSegmentSize());
+        }
+        if(options.isVirtualThreads()) {
+            settings.setExecutionMode(ExecutionMode.VIRTUAL_THREADS);
+        }
+        if(options.getTasksPerDevice() != null) {
+            settings.setMaxTasksPerDevice(options.getTasksPerDevice());
+        }
+        if(options.isAdaptiveThreads()) {
+            settings.setAdaptiveConcurrency(true);
+        }
+        TransferThrottle throttle = getFacade().getThrottle();
+        if(options.getMaxBytesPerSecond() != null) {
+            throttle.setMaxBytesPerSecond(options.getMaxBytesPerSecond());
+        }
+        if(options.getMaxFilesPerSecond() != null) {
+            throttle.setMaxFilesPerSecond(options.getMaxFilesPerSecond());
+        }
+        if(options.getSchedulingPolicy() != null) {
+            settings.setSchedulingPolicy(options.getSchedulingPolicy());
+        }
+        if(options.isWorkStealing()) {
+            settings.setWorkStealing(true);
+        }
+        if(options.getCompareStrategy() != null) {
+            settings.setCompareStrategy(options.getCompareStrategy());
+        }
+    }
+
+    // The limits can be changed while the transfer runs, one "name value" line at a time on the standard input
+    private void startInputThread() {
+        Thread inputThread = new Thread(this::readLimits, "cli-input-thread");
+        inputThread.setDaemon(true);
+        inputThread.start();
+    }
+
+    private void readLimits() {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                applyLimit(line.trim());
+            }
+        } catch (IOException e) {
+            // Nothing to read from
+        }
+    }
+
+    private void applyLimit(String line) {
+        if(line.isEmpty()) {
+            return;
+        }
+        String[] parts = line.split("\\s+");
+        String name = parts[0].startsWith("--") ? parts[0].substring(2) : parts[0];
+        TransferThrottle throttle = getFacade().getThrottle();
+        try {
+            if(parts.length != 2) {
+                throw new IllegalArgumentException("Expected a limit and its value: " + line);
+            }
+            switch (name) {
+                case "max-bytes-per-second":
+                    throttle.setMaxBytesPerSecond(CommandLineOptions.parseSize(name, parts[1]));
+                    break;
+                case "max-files-per-second":
+                    throttle.setMaxFilesPerSecond(CommandLineOptions.parseCount(name, parts[1]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown limit: " + name);
+            }
+            Log.info("Limits are now %s bytes/s and %s files/s, 0 is no limit",
+                    throttle.getMaxBytesPerSecond(), throttle.getMaxFilesPerSecond());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void waitForTransfer(PathProcessResult result) {
+        ProgressSnapshot snapshot = null;
+        long nextProgressMillis = System.currentTimeMillis() + PROGRESS_MILLIS;
+        try {
+            while (!transferResult.isDone()) {
+                Thread.sleep(WAIT_MILLIS);
+                if(options.isProgress()) {
+                    // Taken on every wait so the rates stay smooth, only logged now and then
+                    snapshot = ProgressSnapshot.capture(result, transferResult, snapshot);
+                    if(System.currentTimeMillis() >= nextProgressMillis) {
+                        logProgress(snapshot);
+                        nextProgressMillis += PROGRESS_MILLIS;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void logProgress(ProgressSnapshot snapshot) {
+        Log.info("Progress: %s of %s files, %s bytes written, %.0f bytes/s, %.1f files/s, queue %s/%s, waiting on %s, %s s left",
+                snapshot.getProcessedFileCount(), snapshot.getScannedFileCount(), snapshot.getWrittenByteCount(),
+                snapshot.getBytesPerSecond(), snapshot.getFilesPerSecond(), snapshot.getQueueSize(), snapshot.getQueueCapacity(),
+                snapshot.getBottleneck(), snapshot.getEtaSeconds());
+    }
+
+    private void stopOnShutdown() {
+        isInterrupted = true;
+        getFacade().stopService();
+        // Give the workers time to save the manifest and journal, and the run to write its statistics, before the JVM goes
+        try {
+            finished.await(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.flush();
+    }
+
+    private int writeStats(File source, List<File> destinations, int exitCode, TransferMetrics metrics) {
+        if(options.getStatsFile() == null) {
+            return exitCode;
+        }
+        try {
+            StatsReport.write(options.getStatsFile(), source, destinations, exitCode, metrics);
+            return exitCode;
+        } catch (IOException e) {
+            System.err.println("Couldn't write the statistics to: " + options.getStatsFile());
+            e.printStackTrace();
+            return exitCode == EXIT_OK ? EXIT_STATS_FAILED : exitCode;
+        }
+    }
+
+    private ServiceFacade getFacade(){
+        return ServiceFacade.getInstance();
+    }
+}
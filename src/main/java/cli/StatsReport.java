@@ -0,0 +1,139 @@
+package cli;
+
+import service.transfer.TransferMetrics;
+import service.transfer.metrics.PhaseLatency;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+// Writes the statistics of a finished transfer as JSON, for scripts and monitoring to pick up
+public class StatsReport {
+
+    private final StringBuilder json = new StringBuilder();
+    private boolean isFirstValue = true;
+
+    private StatsReport() {
+    }
+
+    public static void write(File statsFile, File source, List<File> destinations, int exitCode, TransferMetrics metrics) throws IOException {
+        StatsReport report = new StatsReport();
+        report.json.append('{');
+        report.add("source", source.getAbsolutePath());
+        // The first one on its own as well, for the readers from before there could be several
+        report.add("destination", destinations.get(0).getAbsolutePath());
+        report.addPaths("destinations", destinations);
+        report.add("exitCode", exitCode);
+        report.add("done", metrics.isDone());
+        report.add("elapsedMillis", metrics.getElapsedMillis());
+        report.add("scannedFolderCount", metrics.getScannedFolderCount());
+        report.add("scannedFileCount", metrics.getScannedFileCount());
+        report.add("scannedBytes", metrics.getScannedBytes());
+        report.add("unchangedFolderCount", metrics.getUnchangedFolderCount());
+        report.add("excludedFolderCount", metrics.getExcludedFolderCount());
+        report.add("excludedFileCount", metrics.getExcludedFileCount());
+        report.add("excludedBytes", metrics.getExcludedBytes());
+        report.add("copiedFileCount", metrics.getCopiedFileCount());
+        report.add("copiedBytes", metrics.getCopiedBytes());
+        report.add("readBytes", metrics.getReadBytes());
+        report.add("skippedFileCount", metrics.getSkippedFileCount());
+        report.add("skippedBytes", metrics.getSkippedBytes());
+        report.add("linkedFileCount", metrics.getLinkedFileCount());
+        report.add("savedBytes", metrics.getSavedBytes());
+        report.add("verifiedFileCount", metrics.getVerifiedFileCount());
+        report.add("verifiedBytes", metrics.getVerifiedBytes());
+        report.addLatencies(metrics);
+        report.json.append('}').append(System.lineSeparator());
+
+        // Written next to the file and moved over it, a reader never sees half a report
+        Path statsPath = statsFile.getAbsoluteFile().toPath();
+        Path tempPath = statsPath.resolveSibling(statsPath.getFileName() + ".tmp");
+        Files.writeString(tempPath, report.json, StandardCharsets.UTF_8);
+        Files.move(tempPath, statsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void addLatencies(TransferMetrics metrics) {
+        addName("latencies");
+        json.append('{');
+        isFirstValue = true;
+        for (PhaseLatency latency : metrics.getLatencies()) {
+            addName(latency.getPhase());
+            json.append('{');
+            isFirstValue = true;
+            add("count", latency.getCount());
+            add("meanMicros", latency.getMeanMicros());
+            add("p50Micros", latency.getP50Micros());
+            add("p99Micros", latency.getP99Micros());
+            add("maxMicros", latency.getMaxMicros());
+            json.append('}');
+            isFirstValue = false;
+        }
+        json.append('}');
+        isFirstValue = false;
+    }
+
+    private void addPaths(String name, List<File> files) {
+        addName(name);
+        json.append('[');
+        for (int i = 0; i < files.size(); i++) {
+            if(i > 0) {
+                json.append(',');
+            }
+            appendString(files.get(i).getAbsolutePath());
+        }
+        json.append(']');
+    }
+
+    private void add(String name, String value) {
+        addName(name);
+        appendString(value);
+    }
+
+    private void add(String name, Object value) {
+        addName(name);
+        json.append(value);
+    }
+
+    private void addName(String name) {
+        if(!isFirstValue) {
+            json.append(',');
+        }
+        isFirstValue = false;
+        appendString(name);
+        json.append(':');
+    }
+
+    private void appendString(String value) {
+        json.append('"');
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
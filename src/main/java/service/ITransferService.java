@@ -1,14 +1,35 @@
 package service;
 
+import service.transfer.ContinuousSync;
 import service.transfer.PathProcessResult;
 import service.transfer.TransferProcessResult;
+import service.transfer.TransferSettings;
+import service.transfer.throttle.TransferThrottle;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 public interface ITransferService {
+    TransferSettings getSettings();
+
+    TransferThrottle getThrottle();
+
     PathProcessResult startProcessingRootFolder(File sourceFolderPath);
 
+    PathProcessResult startProcessingRootFolder(File sourceFolderPath, File destinationFolderPath);
+
     TransferProcessResult startTransferProcess(File sourceFolderPath, File destinationFolderPath, PathProcessResult result);
 
+    // The source is read once for all the destinations
+    PathProcessResult startProcessingRootFolder(File sourceFolderPath, List<File> destinationFolderPaths);
+
+    TransferProcessResult startTransferProcess(File sourceFolderPath, List<File> destinationFolderPaths, PathProcessResult result);
+
+    ContinuousSync startContinuousSync(File sourceFolderPath, File destinationFolderPath);
+
+    // Writes the files in the bundle at the destination out under the target folder, returns how many
+    long extractBundle(File destinationFolderPath, File targetFolderPath) throws IOException;
+
     void stop();
 }
@@ -1,12 +1,17 @@
 package service;
 
+import service.transfer.ContinuousSync;
 import service.transfer.PathProcessResult;
 import service.transfer.TransferProcessResult;
 import service.transfer.TransferService;
+import service.transfer.TransferSettings;
+import service.transfer.throttle.TransferThrottle;
 import service.validation.PathValidationService;
 import service.validation.PathValidationResult;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 public class ServiceFacade {
 
@@ -22,6 +27,14 @@ public class ServiceFacade {
         return INSTANCE;
     }
 
+    public TransferSettings getSettings(){
+        return transferService.getSettings();
+    }
+
+    public TransferThrottle getThrottle(){
+        return transferService.getThrottle();
+    }
+
     public PathValidationResult validatePath(String path){
         return pathValidationService.validatePath(path);
     }
@@ -30,10 +43,30 @@ public class ServiceFacade {
         return transferService.startProcessingRootFolder(sourceFolderPath);
     }
 
+    public PathProcessResult startProcessingRootFolder(File sourceFolderPath, File destinationFolderPath) {
+        return transferService.startProcessingRootFolder(sourceFolderPath, destinationFolderPath);
+    }
+
     public TransferProcessResult startTransferProcess(File sourceFolderPath, File destinationFolderPath, PathProcessResult result) {
         return transferService.startTransferProcess(sourceFolderPath, destinationFolderPath, result);
     }
 
+    public PathProcessResult startProcessingRootFolder(File sourceFolderPath, List<File> destinationFolderPaths) {
+        return transferService.startProcessingRootFolder(sourceFolderPath, destinationFolderPaths);
+    }
+
+    public TransferProcessResult startTransferProcess(File sourceFolderPath, List<File> destinationFolderPaths, PathProcessResult result) {
+        return transferService.startTransferProcess(sourceFolderPath, destinationFolderPaths, result);
+    }
+
+    public ContinuousSync startContinuousSync(File sourceFolderPath, File destinationFolderPath) {
+        return transferService.startContinuousSync(sourceFolderPath, destinationFolderPath);
+    }
+
+    public long extractBundle(File destinationFolderPath, File targetFolderPath) throws IOException {
+        return transferService.extractBundle(destinationFolderPath, targetFolderPath);
+    }
+
     public void stopService() {
         transferService.stop();
     }
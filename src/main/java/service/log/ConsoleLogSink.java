@@ -0,0 +1,16 @@
+package service.log;
+
+import java.util.List;
+
+public class ConsoleLogSink implements ILogSink {
+
+    @Override
+    public void write(List<String> lines) {
+        // One print per batch instead of one per line
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append(System.lineSeparator());
+        }
+        System.out.print(text);
+    }
+}
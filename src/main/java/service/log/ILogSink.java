@@ -0,0 +1,10 @@
+package service.log;
+
+import java.util.List;
+
+// Receives the formatted log lines, one batch at a time, always from the log consumer thread.
+// The same batch goes to every sink, so it mustn't be changed.
+public interface ILogSink {
+
+    void write(List<String> lines);
+}
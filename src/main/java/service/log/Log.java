@@ -0,0 +1,154 @@
+package service.log;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Logging for the service threads. The level is checked before anything is formatted or allocated,
+// the message is queued without locks and one consumer thread formats and writes the messages in batches.
+public final class Log {
+
+    private static final int BUFFER_CAPACITY = 64 * 1024;
+    private static final int BATCH_SIZE = 1024;
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final LogRingBuffer BUFFER = new LogRingBuffer(BUFFER_CAPACITY);
+    private static final List<ILogSink> SINKS = new CopyOnWriteArrayList<>(Lists.newArrayList(new ConsoleLogSink()));
+    private static final AtomicLong droppedCount = new AtomicLong();
+    private static volatile boolean isDebugEnabled = false;
+
+    static {
+        Thread consumerThread = new Thread(Log::consume, "log-consumer-thread");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+        // Write out whatever is still queued when the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush-thread"));
+    }
+
+    private Log() {
+    }
+
+    public static boolean isDebugEnabled() {
+        return isDebugEnabled;
+    }
+
+    public static void setDebugEnabled(boolean isDebugEnabled) {
+        Log.isDebugEnabled = isDebugEnabled;
+    }
+
+    public static void addSink(ILogSink sink) {
+        SINKS.add(sink);
+    }
+
+    public static void removeSink(ILogSink sink) {
+        SINKS.remove(sink);
+    }
+
+    // Nothing is written anywhere until a sink is added again, including the console
+    public static void clearSinks() {
+        SINKS.clear();
+    }
+
+    public static void debug(String message) {
+        if(isDebugEnabled) {
+            publish(LogLevel.DEBUG, message, null);
+        }
+    }
+
+    public static void debug(String format, Object arg) {
+        if(isDebugEnabled) {
+            publish(LogLevel.DEBUG, format, new Object[]{arg});
+        }
+    }
+
+    public static void debug(String format, Object arg1, Object arg2) {
+        if(isDebugEnabled) {
+            publish(LogLevel.DEBUG, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    public static void debug(String format, Object... args) {
+        if(isDebugEnabled) {
+            publish(LogLevel.DEBUG, format, args);
+        }
+    }
+
+    public static void info(String message) {
+        publish(LogLevel.INFO, message, null);
+    }
+
+    public static void info(String format, Object arg) {
+        publish(LogLevel.INFO, format, new Object[]{arg});
+    }
+
+    public static void info(String format, Object arg1, Object arg2) {
+        publish(LogLevel.INFO, format, new Object[]{arg1, arg2});
+    }
+
+    public static void info(String format, Object... args) {
+        publish(LogLevel.INFO, format, args);
+    }
+
+    private static void publish(LogLevel level, String format, Object[] args) {
+        LogEvent event = new LogEvent(Thread.currentThread().getName(), format, args);
+        while (!BUFFER.offer(event)) {
+            if(level == LogLevel.DEBUG) {
+                // Debug messages aren't worth holding up a worker for
+                droppedCount.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(FULL_WAIT_NANOS);
+        }
+    }
+
+    private static void consume() {
+        while (true) {
+            if(drain() == 0) {
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
+            }
+        }
+    }
+
+    // Writes out everything queued so far
+    public static void flush() {
+        while (drain() > 0) {
+            // Keep going until the buffer is empty
+        }
+    }
+
+    // Synchronized so the shutdown hook and the consumer thread never drain at the same time
+    private static synchronized int drain() {
+        List<LogEvent> events = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        int count = BUFFER.drainTo(events, BATCH_SIZE);
+        long dropped = droppedCount.getAndSet(0);
+        if(count == 0 && dropped == 0) {
+            return 0;
+        }
+
+        List<String> lines = Lists.newArrayListWithCapacity(count + 1);
+        if(dropped > 0) {
+            lines.add(String.format("log-consumer-thread - Dropped %s debug messages, the log couldn't keep up", dropped));
+        }
+        for (LogEvent event : events) {
+            try {
+                lines.add(event.format());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        for (ILogSink sink : SINKS) {
+            try {
+                sink.write(lines);
+            } catch (RuntimeException e) {
+                // One broken sink shouldn't stop the others
+                e.printStackTrace();
+            }
+        }
+        return count;
+    }
+}
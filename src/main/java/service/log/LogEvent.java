@@ -0,0 +1,19 @@
+package service.log;
+
+// A log message that hasn't been formatted yet, that's left to the consumer thread
+class LogEvent {
+    private final String threadName;
+    private final String format;
+    private final Object[] args;
+
+    LogEvent(String threadName, String format, Object[] args) {
+        this.threadName = threadName;
+        this.format = format;
+        this.args = args;
+    }
+
+    String format() {
+        String message = args == null ? format : String.format(format, args);
+        return threadName + " - " + message;
+    }
+}
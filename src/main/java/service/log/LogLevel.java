@@ -0,0 +1,6 @@
+package service.log;
+
+public enum LogLevel {
+    DEBUG,
+    INFO
+}
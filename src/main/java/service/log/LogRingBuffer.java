@@ -0,0 +1,56 @@
+package service.log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Bounded ring buffer for many producers and one consumer, without locks.
+// Producers claim a slot by moving the tail forward, the consumer empties slots and moves the head forward.
+class LogRingBuffer {
+    private final AtomicReferenceArray<LogEvent> slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // The capacity is rounded up to a power of two
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    // Returns false if the buffer is full
+    boolean offer(LogEvent event) {
+        long position;
+        do {
+            position = tail.get();
+            if(position - head.get() >= slots.length()) {
+                return false;
+            }
+        } while (!tail.compareAndSet(position, position + 1));
+
+        // The consumer waits for the slot to be filled before moving past it
+        slots.set((int) position & mask, event);
+        return true;
+    }
+
+    // Moves up to maxEvents into the batch, only ever called by one thread at a time
+    int drainTo(List<LogEvent> batch, int maxEvents) {
+        long position = head.get();
+        int count = 0;
+        while (count < maxEvents) {
+            int index = (int) position & mask;
+            LogEvent event = slots.get(index);
+            if(event == null) {
+                // Empty, or claimed but not filled in yet
+                break;
+            }
+            slots.lazySet(index, null);
+            batch.add(event);
+            position++;
+            count++;
+        }
+        head.set(position);
+        return count;
+    }
+}
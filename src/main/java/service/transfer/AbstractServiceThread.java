@@ -1,7 +1,5 @@
 package service.transfer;
 
-import ui.WindowFrame;
-
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class AbstractServiceThread extends Thread {
@@ -12,9 +10,4 @@ public abstract class AbstractServiceThread extends Thread {
         super(threadName);
         this.cancel = cancel;
     }
-
-    void logMsg(String message, boolean isDebug) {
-        String msg = String.format("%s - %s%n", this.getName(), message);
-        WindowFrame.addMsg(msg, isDebug);
-    }
 }
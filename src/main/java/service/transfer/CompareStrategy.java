@@ -0,0 +1,11 @@
+package service.transfer;
+
+// How to decide that a destination file is already up to date. A different size always means copy.
+public enum CompareStrategy {
+    // Same size and modified time, like rsync does by default
+    SIZE_AND_MTIME,
+    // Same size and modified time, the content is only read when the times differ
+    SIZE_AND_MTIME_THEN_CONTENT,
+    // Always read both files
+    CONTENT
+}
@@ -0,0 +1,160 @@
+package service.transfer;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import service.transfer.copy.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Compares the content of two files by splitting them in windows and comparing the windows in parallel.
+// Each window is read with positional reads into pooled buffers, mapping them would cost two memory mappings
+// per window that are only released when the buffers are collected, which runs out of vm.max_map_count.
+// ByteBuffer.mismatch compares many bytes at a time, and the first difference stops every window.
+public class ContentComparator {
+
+    // Small files are read whole on the calling thread, larger ones window by window on the compare pool
+    private static final long SMALL_FILE_SIZE = 1024 * 1024;
+    private static final int READ_SIZE = 64 * 1024;
+    private static final int WINDOW_READ_SIZE = 1024 * 1024;
+
+    private final long windowSize;
+    private final BufferPool readBuffers = new BufferPool(READ_SIZE, false);
+    // At most two per compare thread and caller are in use at once
+    private final BufferPool windowBuffers = new BufferPool(WINDOW_READ_SIZE, true);
+    private final ExecutorService compareService;
+
+    public ContentComparator(long windowSize, int compareThreads) {
+        this.windowSize = windowSize;
+        this.compareService = Executors.newFixedThreadPool(compareThreads,
+                new ThreadFactoryBuilder().setNameFormat("compare-thread-%d").setDaemon(true).build());
+    }
+
+    // Returns true if both files hold the same bytes
+    public boolean isSameContent(Path source, Path destination) throws IOException {
+        try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel destinationChannel = FileChannel.open(destination, StandardOpenOption.READ)) {
+            // Lengths first, no need to read anything if they differ
+            long size = sourceChannel.size();
+            if(size != destinationChannel.size()) {
+                return false;
+            }
+            if(size <= SMALL_FILE_SIZE) {
+                return isSameRead(sourceChannel, destinationChannel);
+            }
+            if(size <= windowSize) {
+                return isSameWindow(sourceChannel, destinationChannel, 0, size, new AtomicBoolean(false));
+            }
+            return isSameWindows(sourceChannel, destinationChannel, size);
+        }
+    }
+
+    public void close() {
+        compareService.shutdown();
+    }
+
+    private boolean isSameWindows(FileChannel sourceChannel, FileChannel destinationChannel, long size) throws IOException {
+        // Set as soon as any window differs, so the others can stop
+        AtomicBoolean stop = new AtomicBoolean(false);
+        List<Future<Boolean>> windowFutures = Lists.newArrayList();
+        for (long position = 0; position < size; position += windowSize) {
+            long windowPosition = position;
+            long windowLength = Math.min(windowSize, size - position);
+            windowFutures.add(compareService.submit(() -> isSameWindow(sourceChannel, destinationChannel, windowPosition, windowLength, stop)));
+        }
+
+        try {
+            for (Future<Boolean> windowFuture : windowFutures) {
+                if(!windowFuture.get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while comparing " + size + " bytes", e);
+        } finally {
+            stop.set(true);
+            for (Future<Boolean> windowFuture : windowFutures) {
+                windowFuture.cancel(false);
+            }
+        }
+    }
+
+    private boolean isSameRead(FileChannel sourceChannel, FileChannel destinationChannel) throws IOException {
+        ByteBuffer sourceBuffer = readBuffers.take();
+        ByteBuffer destinationBuffer = readBuffers.take();
+        try {
+            return isSameRange(sourceChannel, destinationChannel, 0, sourceChannel.size(), sourceBuffer, destinationBuffer,
+                    new AtomicBoolean(false));
+        } finally {
+            readBuffers.release(sourceBuffer);
+            readBuffers.release(destinationBuffer);
+        }
+    }
+
+    private boolean isSameWindow(FileChannel sourceChannel, FileChannel destinationChannel, long position, long length,
+                                 AtomicBoolean stop) throws IOException {
+        if(stop.get()) {
+            return false;
+        }
+        ByteBuffer sourceBuffer = windowBuffers.take();
+        ByteBuffer destinationBuffer = windowBuffers.take();
+        try {
+            if(!isSameRange(sourceChannel, destinationChannel, position, length, sourceBuffer, destinationBuffer, stop)) {
+                stop.set(true);
+                return false;
+            }
+            return true;
+        } finally {
+            windowBuffers.release(sourceBuffer);
+            windowBuffers.release(destinationBuffer);
+        }
+    }
+
+    private boolean isSameRange(FileChannel sourceChannel, FileChannel destinationChannel, long position, long length,
+                                ByteBuffer sourceBuffer, ByteBuffer destinationBuffer, AtomicBoolean stop) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            if(stop.get()) {
+                return false;
+            }
+            int chunk = (int) Math.min(sourceBuffer.capacity(), end - position);
+            sourceBuffer.clear().limit(chunk);
+            destinationBuffer.clear().limit(chunk);
+            if(readFully(sourceChannel, sourceBuffer, position) != chunk
+                    || readFully(destinationChannel, destinationBuffer, position) != chunk) {
+                // One of them got shorter while comparing
+                return false;
+            }
+            sourceBuffer.flip();
+            destinationBuffer.flip();
+            if(sourceBuffer.mismatch(destinationBuffer) != -1) {
+                return false;
+            }
+            position += chunk;
+        }
+        return true;
+    }
+
+    // Fills the buffer from the position unless the file ends first, returns the number of bytes read
+    private int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + total);
+            if(count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+}
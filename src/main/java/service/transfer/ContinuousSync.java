@@ -0,0 +1,144 @@
+package service.transfer;
+
+import service.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Keeps the destination in sync with the source until it's stopped. The first pass is a full transfer,
+// after that every batch of changes seen by the SourceWatcher gets a pass that only scans the changed folders.
+public class ContinuousSync extends AbstractServiceThread {
+
+    private static final long WAIT_MILLIS = 100;
+
+    private final TransferService transferService;
+    private final File sourceFolderPath;
+    private final File destinationFolderPath;
+    private final long quietMillis;
+    private final long maxDelayMillis;
+    private final AtomicBoolean isDone = new AtomicBoolean(false);
+    private final AtomicBoolean isFailed = new AtomicBoolean(false);
+    private final AtomicInteger passCount = new AtomicInteger();
+    // The latest pass
+    private volatile PathProcessResult result;
+    private volatile TransferProcessResult transferResult;
+
+    public ContinuousSync(TransferService transferService, File sourceFolderPath, File destinationFolderPath, long quietMillis,
+                          long maxDelayMillis) {
+        super("continuous-sync-thread", new AtomicBoolean(false));
+        this.transferService = transferService;
+        this.sourceFolderPath = sourceFolderPath;
+        this.destinationFolderPath = destinationFolderPath;
+        this.quietMillis = quietMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public void run() {
+        try {
+            // Watch before the first pass, so the changes made during it aren't lost
+            SourceWatcher watcher = openWatcher();
+            if(watcher == null) {
+                isFailed.set(true);
+                return;
+            }
+            try {
+                syncUntilStopped(watcher);
+            } finally {
+                closeWatcher(watcher);
+            }
+        } finally {
+            isDone.set(true);
+        }
+        Log.debug("Finished continuous-sync-thread");
+    }
+
+    private void syncUntilStopped(SourceWatcher watcher) {
+        Log.info("Watching %s folders in: %s", watcher.getWatchedFolderCount(), sourceFolderPath);
+        SyncScope scope = null;
+        while (runPass(scope)) {
+            scope = watcher.awaitChanges(quietMillis, maxDelayMillis, cancel);
+            if(scope == null) {
+                break;
+            }
+            Log.info("Syncing %s changed folders, %s of them scanned with everything in them",
+                    scope.getDirtyFolderCount(), scope.getRescanFolderCount());
+        }
+    }
+
+    // A null scope runs a full pass, returns false once stopped
+    private boolean runPass(SyncScope scope) {
+        if(cancel.get()) {
+            return false;
+        }
+        PathProcessResult passResult = scope == null
+                ? transferService.startProcessingRootFolder(sourceFolderPath, destinationFolderPath)
+                : transferService.startProcessingChanges(sourceFolderPath, destinationFolderPath, scope);
+        TransferProcessResult passTransferResult = transferService.startTransferProcess(sourceFolderPath, destinationFolderPath, passResult);
+        if(passTransferResult == null) {
+            return false;
+        }
+        if(cancel.get()) {
+            // Stopped while the pass was starting, starting it cleared the cancel
+            transferService.stop();
+        }
+        result = passResult;
+        transferResult = passTransferResult;
+        try {
+            while (!passTransferResult.isDone()) {
+                Thread.sleep(WAIT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        passCount.incrementAndGet();
+        return !cancel.get();
+    }
+
+    private SourceWatcher openWatcher() {
+        try {
+            return SourceWatcher.open(sourceFolderPath.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Log.info("Couldn't watch the source folder: %s", sourceFolderPath);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void closeWatcher(SourceWatcher watcher) {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Stops waiting for changes, the transfer service cancels a pass that is running
+    public void stopWatching() {
+        cancel.set(true);
+    }
+
+    public boolean isDone() {
+        return isDone.get();
+    }
+
+    // True if the source couldn't be watched, nothing was synced then
+    public boolean isFailed() {
+        return isFailed.get();
+    }
+
+    public int getPassCount() {
+        return passCount.get();
+    }
+
+    // Null until the first pass started
+    public PathProcessResult getResult() {
+        return result;
+    }
+
+    public TransferProcessResult getTransferResult() {
+        return transferResult;
+    }
+}
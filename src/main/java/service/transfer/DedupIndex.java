@@ -0,0 +1,218 @@
+package service.transfer;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Finds files with the same content within one transfer, so each content is only copied once and the others
+// become hard links to that copy. The scan groups the files by size, and only files that share their size
+// with another file are hashed, with SHA-256 while streaming through them.
+// A link has the modified time of the copy it shares its data with, not its own. The links are kept in a file at the
+// destination with the source version they were made for, so the next transfer can tell they're still up to date.
+public class DedupIndex {
+
+    private static final int MAGIC = 0x46544c31; // FTL1
+
+    private final long minSize;
+    private final Map<Long, SizeGroup> sizeGroups = new ConcurrentHashMap<>();
+    // Null when there's no destination to keep them in
+    private final Path linksFile;
+    private final Map<String, LinkState> links = new ConcurrentHashMap<>();
+    private final AtomicBoolean isChanged = new AtomicBoolean(false);
+
+    private DedupIndex(long minSize, Path linksFile) {
+        this.minSize = Math.max(1, minSize);
+        this.linksFile = linksFile;
+    }
+
+    // Loads the links an earlier transfer made to the destination, the destination can be null
+    public static DedupIndex open(File destinationFolderPath, long minSize) {
+        if(destinationFolderPath == null) {
+            return new DedupIndex(minSize, null);
+        }
+        DedupIndex index = new DedupIndex(minSize, destinationFolderPath.toPath().resolve(TransferService.LINKS_FILE_NAME));
+        if(!Files.isRegularFile(index.linksFile)) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index.linksFile)))) {
+            if(in.readInt() != MAGIC) {
+                return index;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                index.links.put(in.readUTF(), new LinkState(in.readLong(), in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            // The links are compared like any other file instead
+            e.printStackTrace();
+            index.links.clear();
+        }
+        return index;
+    }
+
+    // The files of a folder that is handed to the transfer threads
+    public void addScannedFiles(List<FileEntry> files) {
+        for (FileEntry file : files) {
+            if(file.getSize() >= minSize) {
+                sizeGroups.computeIfAbsent(file.getSize(), size -> new SizeGroup()).incrementScannedCount();
+            }
+        }
+    }
+
+    // True if another file of the same size was scanned, only then is it worth hashing
+    public boolean isCandidate(FileEntry file) {
+        SizeGroup group = sizeGroups.get(file.getSize());
+        return group != null && group.getScannedCount() > 1;
+    }
+
+    public static HashCode hash(Path file) throws IOException {
+        return com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha256());
+    }
+
+    // A copy at the destination with this content, null if there isn't one yet
+    public Path findCopy(long size, HashCode contentHash) throws IOException {
+        SizeGroup group = sizeGroups.get(size);
+        return group == null ? null : group.findCopy(contentHash);
+    }
+
+    // A file that was copied, the hash is null if it wasn't a candidate when it was copied
+    public void addCopy(FileEntry file, HashCode contentHash, Path destinationPath) {
+        SizeGroup group = sizeGroups.get(file.getSize());
+        if(group != null) {
+            group.addCopy(contentHash, destinationPath);
+        }
+    }
+
+    // True if an earlier transfer linked this version of the source file, and the link hasn't been touched since
+    public boolean isLinked(String relativeFilePath, FileEntry source, BasicFileAttributes destinationAttributes) {
+        LinkState state = links.get(relativeFilePath);
+        return state != null && state.sourceSize == source.getSize() && state.sourceLastModified == source.getLastModified()
+                && destinationAttributes.size() == source.getSize()
+                && destinationAttributes.lastModifiedTime().toMillis() == state.destinationLastModified;
+    }
+
+    public void addLink(String relativeFilePath, FileEntry source, Path destinationPath) throws IOException {
+        long destinationLastModified = Files.getLastModifiedTime(destinationPath, LinkOption.NOFOLLOW_LINKS).toMillis();
+        LinkState state = new LinkState(source.getSize(), source.getLastModified(), destinationLastModified);
+        if(!state.equals(links.put(relativeFilePath, state))) {
+            isChanged.set(true);
+        }
+    }
+
+    // The file was copied on its own
+    public void removeLink(String relativeFilePath) {
+        if(links.remove(relativeFilePath) != null) {
+            isChanged.set(true);
+        }
+    }
+
+    // Writes the links to a temporary file and moves it over the old one, so it's never half written
+    public boolean flush() throws IOException {
+        if(linksFile == null || !isChanged.getAndSet(false)) {
+            return false;
+        }
+        Path tempFile = linksFile.resolveSibling(linksFile.getFileName() + ".tmp");
+        Map<String, LinkState> snapshot = Map.copyOf(links);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, LinkState> entry : snapshot.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().sourceSize);
+                    out.writeLong(entry.getValue().sourceLastModified);
+                    out.writeLong(entry.getValue().destinationLastModified);
+                }
+            }
+            Files.move(tempFile, linksFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            isChanged.set(true);
+            throw e;
+        }
+    }
+
+    public int getLinkCount() {
+        return links.size();
+    }
+
+    public Path getLinksFile() {
+        return linksFile;
+    }
+
+    private static class LinkState {
+        private final long sourceSize;
+        private final long sourceLastModified;
+        private final long destinationLastModified;
+
+        LinkState(long sourceSize, long sourceLastModified, long destinationLastModified) {
+            this.sourceSize = sourceSize;
+            this.sourceLastModified = sourceLastModified;
+            this.destinationLastModified = destinationLastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof LinkState)) {
+                return false;
+            }
+            LinkState other = (LinkState) o;
+            return sourceSize == other.sourceSize && sourceLastModified == other.sourceLastModified
+                    && destinationLastModified == other.destinationLastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(sourceSize) * 31 + Long.hashCode(sourceLastModified) * 17 + Long.hashCode(destinationLastModified);
+        }
+    }
+
+    private static class SizeGroup {
+        private int scannedCount;
+        private final Map<HashCode, Path> copies = new ConcurrentHashMap<>();
+        // Copied while it was the only file of its size, it's hashed once another one turns up
+        private Path unhashedCopy;
+
+        synchronized void incrementScannedCount() {
+            scannedCount++;
+        }
+
+        synchronized int getScannedCount() {
+            return scannedCount;
+        }
+
+        // The unhashed copy is read outside the lock, the others of this size don't wait for it.
+        // One that comes along while it's being hashed doesn't find it and is copied instead.
+        Path findCopy(HashCode contentHash) throws IOException {
+            Path copy = takeUnhashedCopy();
+            if(copy != null && Files.isRegularFile(copy)) {
+                copies.putIfAbsent(hash(copy), copy);
+            }
+            return copies.get(contentHash);
+        }
+
+        private synchronized Path takeUnhashedCopy() {
+            Path copy = unhashedCopy;
+            unhashedCopy = null;
+            return copy;
+        }
+
+        synchronized void addCopy(HashCode contentHash, Path destinationPath) {
+            if(contentHash != null) {
+                copies.putIfAbsent(contentHash, destinationPath);
+            } else if(unhashedCopy == null && copies.isEmpty()) {
+                unhashedCopy = destinationPath;
+            }
+        }
+    }
+}
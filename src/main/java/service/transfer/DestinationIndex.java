@@ -0,0 +1,151 @@
+package service.transfer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import service.log.Log;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Everything that is already at the destination, listed once up front and in parallel while the source is scanned.
+// The transfer threads look the files and folders up in here, instead of a stat or a mkdirs for each of them,
+// which on a network destination are a round trip every time.
+public class DestinationIndex {
+
+    private final Path rootFolder;
+    // Folder to its entries by name, a folder that isn't in here doesn't exist at the destination
+    private final Map<Path, Map<String, BasicFileAttributes>> folders = new ConcurrentHashMap<>();
+    private final LongAdder entryCount = new LongAdder();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile boolean isComplete;
+
+    private DestinationIndex(Path rootFolder) {
+        this.rootFolder = rootFolder;
+    }
+
+    // Starts listing the destination on its own threads, the lookups wait until it's done
+    public static DestinationIndex start(Path rootFolder, int parallelism, AtomicBoolean cancel) {
+        DestinationIndex index = new DestinationIndex(rootFolder);
+        Thread thread = new Thread(() -> index.build(parallelism, cancel), "destination-index-thread");
+        thread.setDaemon(true);
+        thread.start();
+        return index;
+    }
+
+    private void build(int parallelism, AtomicBoolean cancel) {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism, this::newWorkerThread, null, false);
+        try {
+            isComplete = pool.invoke(new IndexFolderTask(rootFolder, cancel));
+            Log.debug("Indexed %s folders with %s entries at the destination in %s ms", folders.size(), entryCount.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+            ready.countDown();
+        }
+    }
+
+    private ForkJoinWorkerThread newWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("destination-index-worker-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    // Waits for the listing, returns false if it couldn't list everything and the destination has to be asked instead
+    public boolean awaitReady() {
+        try {
+            ready.await();
+            return isComplete;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Null if there's nothing by that name in the folder
+    public BasicFileAttributes getAttributes(Path folder, String name) {
+        Map<String, BasicFileAttributes> entries = folders.get(folder);
+        return entries == null ? null : entries.get(name);
+    }
+
+    // True if the folder is at the destination, or the listing couldn't tell
+    public boolean hasFolder(Path folder) {
+        return !awaitReady() || folders.containsKey(folder);
+    }
+
+    // Creates the folder and the parents it's missing, top down so each one is a single call.
+    // Returns how many were created.
+    public int createFolders(Path folder) throws IOException {
+        List<Path> missingFolders = Lists.newArrayList();
+        for (Path parent = folder; parent != null && !folders.containsKey(parent); parent = parent.getParent()) {
+            missingFolders.add(parent);
+        }
+        Collections.reverse(missingFolders);
+
+        int createdCount = 0;
+        for (Path missingFolder : missingFolders) {
+            try {
+                Files.createDirectory(missingFolder);
+                createdCount++;
+            } catch (FileAlreadyExistsException e) {
+                // Another transfer thread got there first
+            }
+            folders.putIfAbsent(missingFolder, Collections.emptyMap());
+        }
+        return createdCount;
+    }
+
+    private class IndexFolderTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+        private final Path folder;
+        private final AtomicBoolean cancel;
+        IndexFolderTask(Path folder, AtomicBoolean cancel){
+            this.folder = folder;
+            this.cancel = cancel;
+        }
+        @Override
+        protected Boolean compute() {
+            if(cancel.get()) {
+                return false;
+            }
+            List<Path> failedEntries = Lists.newArrayList();
+            List<FileEntry> entries;
+            try {
+                // Links in the destination are what they are, only the root is followed
+                entries = DirectoryLister.list(folder, failedEntries, folder.equals(rootFolder));
+            } catch (IOException e) {
+                Log.info("Couldn't index destination folder: %s", folder);
+                return false;
+            }
+
+            Map<String, BasicFileAttributes> folderEntries = Maps.newHashMapWithExpectedSize(entries.size());
+            List<IndexFolderTask> subfolderTasks = Lists.newArrayList();
+            for (FileEntry entry : entries) {
+                folderEntries.put(entry.getName(), entry.getAttributes());
+                if(entry.isDirectory()) {
+                    subfolderTasks.add(new IndexFolderTask(entry.getPath(), cancel));
+                }
+            }
+            folders.put(folder, folderEntries);
+            entryCount.add(entries.size());
+
+            invokeAll(subfolderTasks);
+            boolean isComplete = failedEntries.isEmpty();
+            for (IndexFolderTask subfolderTask : subfolderTasks) {
+                isComplete &= subfolderTask.join();
+            }
+            return isComplete;
+        }
+    }
+}
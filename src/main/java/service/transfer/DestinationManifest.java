@@ -0,0 +1,129 @@
+package service.transfer;
+
+import com.google.common.hash.HashCode;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One index of folder fingerprints for the whole destination, keyed by the folder path relative to the destination.
+// It's loaded once when the transfer starts and written back in one go when it ends.
+public class DestinationManifest {
+
+    private static final int MAGIC = 0x46545531; // FTU1
+    // 1 had 32 bit hashcodes, those can't be compared with the fingerprints
+    private static final int VERSION = 2;
+
+    private final Path manifestFile;
+    private final File manifestFolderPath;
+    // Null when the destination isn't listed, a deleted folder is then found when it has to be created again
+    private final DestinationIndex index;
+    private final Map<String, HashCode> folderFingerprints = new ConcurrentHashMap<>();
+    private final AtomicBoolean isChanged = new AtomicBoolean(false);
+
+    private DestinationManifest(File manifestFolderPath, DestinationIndex index) {
+        this.manifestFile = manifestFolderPath.toPath().resolve(TransferService.MANIFEST_FILE_NAME);
+        this.manifestFolderPath = manifestFolderPath;
+        this.index = index;
+    }
+
+    public static DestinationManifest empty(File manifestFolderPath, DestinationIndex index) {
+        return new DestinationManifest(manifestFolderPath, index);
+    }
+
+    public static DestinationManifest load(File manifestFolderPath, DestinationIndex index) throws IOException {
+        DestinationManifest manifest = empty(manifestFolderPath, index);
+        if(!Files.isRegularFile(manifest.manifestFile)) {
+            return manifest;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest.manifestFile)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // Unknown format, start over
+                return manifest;
+            }
+            int count = in.readInt();
+            byte[] fingerprint = new byte[FolderFingerprint.BYTES];
+            for (int i = 0; i < count; i++) {
+                String relativePath = in.readUTF();
+                in.readFully(fingerprint);
+                manifest.folderFingerprints.put(relativePath, HashCode.fromBytes(fingerprint));
+            }
+        }
+        return manifest;
+    }
+
+    public Path getManifestFile() {
+        return manifestFile;
+    }
+
+    public int size() {
+        return folderFingerprints.size();
+    }
+
+    // Null if the folder isn't known, or the index doesn't have it at the destination anymore
+    public HashCode getFingerprint(String relativePath) {
+        HashCode fingerprint = folderFingerprints.get(relativePath);
+        if(fingerprint == null || index == null || index.hasFolder(new File(manifestFolderPath, relativePath).toPath())) {
+            return fingerprint;
+        }
+        // It has to be copied again, and the manifest shouldn't remember it anymore
+        if(folderFingerprints.remove(relativePath, fingerprint)) {
+            isChanged.set(true);
+        }
+        return null;
+    }
+
+    public void putFingerprint(String relativePath, HashCode folderFingerprint) {
+        HashCode previous = folderFingerprints.put(relativePath, folderFingerprint);
+        if(!folderFingerprint.equals(previous)) {
+            isChanged.set(true);
+        }
+    }
+
+    public void removeFingerprint(String relativePath) {
+        if(folderFingerprints.remove(relativePath) != null) {
+            isChanged.set(true);
+        }
+    }
+
+    // A known folder that had to be created again was deleted from the destination, and everything in it with it.
+    // The folders below it are forgotten, they're copied again once they're transferred.
+    public void removeDeletedFolder(String relativePath) {
+        if(!folderFingerprints.containsKey(relativePath)) {
+            // A new folder
+            return;
+        }
+        String subfolderPrefix = relativePath + "/";
+        if(folderFingerprints.keySet().removeIf(path -> path.equals(relativePath) || path.startsWith(subfolderPrefix))) {
+            isChanged.set(true);
+        }
+    }
+
+    // Removes the hashcode property file older versions wrote into every destination folder.
+    // Its 32 bit hashcode can't be compared with a fingerprint, so the folder is checked file by file once.
+    public static boolean removeLegacyHashcodeFile(File destinationFolder) throws IOException {
+        return Files.deleteIfExists(new File(destinationFolder, TransferService.HASHCODE_FILE_NAME).toPath());
+    }
+
+    // Writes the manifest to a temporary file and moves it over the old one, so it's never half written
+    public boolean flush() throws IOException {
+        if(!isChanged.getAndSet(false)) {
+            return false;
+        }
+        Path tempFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+        Map<String, HashCode> snapshot = Map.copyOf(folderFingerprints);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, HashCode> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(entry.getValue().asBytes());
+            }
+        }
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package service.transfer;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Caps how many copies or tasks can use the same device at once, so spinning disks aren't thrashed.
+public class DeviceConcurrencyLimiter {
+
+    private final int maxPerDevice;
+    private final ConcurrentMap<FileStore, Semaphore> deviceSemaphores = new ConcurrentHashMap<>();
+
+    public DeviceConcurrencyLimiter(int maxPerDevice) {
+        this.maxPerDevice = maxPerDevice;
+    }
+
+    public boolean isEnabled() {
+        return maxPerDevice > 0;
+    }
+
+    // Returns null when there is no limit
+    public Semaphore getSemaphore(Path folder) throws IOException {
+        if(!isEnabled()) {
+            return null;
+        }
+        FileStore device = Files.getFileStore(folder);
+        return deviceSemaphores.computeIfAbsent(device, d -> new Semaphore(maxPerDevice, true));
+    }
+
+    // Waits for a free slot, returns false if the user cancelled meanwhile. A null semaphore means no limit.
+    public static boolean acquire(Semaphore deviceSemaphore, AtomicBoolean cancel) {
+        if(deviceSemaphore == null) {
+            return true;
+        }
+        try {
+            while (!deviceSemaphore.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if(cancel.get()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public static void release(Semaphore deviceSemaphore) {
+        if(deviceSemaphore != null) {
+            deviceSemaphore.release();
+        }
+    }
+}
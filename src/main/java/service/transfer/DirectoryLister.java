@@ -0,0 +1,50 @@
+package service.transfer;
+
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+
+// Lists a folder and reads the attributes of every entry once, in the same pass.
+// (On Windows the attributes come with the directory listing itself)
+public class DirectoryLister {
+
+    private static final EnumSet<FileVisitOption> FOLLOW_LINKS = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+    private static final EnumSet<FileVisitOption> NO_FOLLOW_LINKS = EnumSet.noneOf(FileVisitOption.class);
+
+    private DirectoryLister(){ }
+
+    public static List<FileEntry> list(Path folder, List<Path> failedEntries) throws IOException {
+        return list(folder, failedEntries, true);
+    }
+
+    // Without following links a link is listed as itself, the way the destination side looks at it
+    public static List<FileEntry> list(Path folder, List<Path> failedEntries, boolean followLinks) throws IOException {
+        List<FileEntry> entries = Lists.newArrayList();
+        Files.walkFileTree(folder, followLinks ? FOLLOW_LINKS : NO_FOLLOW_LINKS, 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if(file.equals(folder)) {
+                    // Only called for the starting path when it isn't a folder
+                    throw new NotDirectoryException(folder.toString());
+                }
+                entries.add(new FileEntry(file, attrs));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if(file.equals(folder)) {
+                    // The folder itself can't be read
+                    throw exc;
+                }
+                failedEntries.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return entries;
+    }
+}
@@ -0,0 +1,8 @@
+package service.transfer;
+
+public enum ExecutionMode {
+    // A fork-join pool scans and a fixed number of transfer threads copy one file at a time
+    PLATFORM_THREADS,
+    // Every folder listing and every file copy gets its own virtual thread, limited per device. Needs Java 21.
+    VIRTUAL_THREADS
+}
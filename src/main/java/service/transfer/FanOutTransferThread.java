@@ -0,0 +1,239 @@
+package service.transfer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import service.log.Log;
+import service.transfer.copy.CopyAttributes;
+import service.transfer.copy.CopyProgress;
+import service.transfer.copy.CopyTarget;
+import service.transfer.copy.FanOutCopier;
+import service.transfer.copy.ICopyEngine;
+import service.transfer.metrics.PhaseLatencies;
+import service.transfer.metrics.TimedPhase;
+import service.transfer.throttle.TransferThrottle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Transfers every folder to several destinations at once. Each destination decides for itself which folders
+// and files it needs, from its own manifest and its own copies, and a file that more than one of them needs
+// is read once and written to all of them at the same time.
+public class FanOutTransferThread extends AbstractServiceThread {
+
+    // Which of the workers this is, the scheduler may keep folders aside for it
+    private final int workerIndex;
+    private final File sourceFolderPath;
+    private final List<TransferDestination> destinations;
+    private final PathProcessResult result;
+    private final TransferProcessResult transferResult;
+    private final ICopyEngine copyEngine;
+    private final FanOutCopier fanOutCopier;
+    private final FileComparator fileComparator;
+    private final PhaseLatencies latencies;
+    private final TransferThrottle throttle;
+
+    public FanOutTransferThread(String threadName, int workerIndex, File sourceFolderPath, List<TransferDestination> destinations,
+                                PathProcessResult result, TransferProcessResult transferResult, ICopyEngine copyEngine,
+                                FanOutCopier fanOutCopier, FileComparator fileComparator, TransferThrottle throttle, AtomicBoolean cancel) {
+        super(threadName, cancel);
+        this.workerIndex = workerIndex;
+        this.sourceFolderPath = sourceFolderPath;
+        this.destinations = destinations;
+        this.result = result;
+        this.transferResult = transferResult;
+        this.copyEngine = copyEngine;
+        this.fanOutCopier = fanOutCopier;
+        this.fileComparator = fileComparator;
+        this.latencies = transferResult.getLatencies();
+        this.throttle = throttle;
+    }
+
+    public void run(){
+        Log.debug("Started %s", getName());
+
+        while (!cancel.get()) {
+            // Wait for a folder that has been processed
+            FolderAndHashcode sourceFolder = result.nextFolder(workerIndex);
+
+            // Check if there are anymore folders
+            if (sourceFolder == null) {
+                break;
+            }
+
+            String relativePath = TransferDestination.getRelativePath(sourceFolderPath, sourceFolder.getFolder());
+            try {
+                transferFolder(sourceFolder, relativePath);
+            } catch (IOException e) {
+                Log.info("Exception while transferring: %s", sourceFolder.getFolder());
+                e.printStackTrace();
+            }
+        }
+
+        // The last worker out saves the manifests and marks the transfer as done
+        if(transferResult.finishWorker()) {
+            for (TransferDestination destination : destinations) {
+                saveManifest(destination.getManifest());
+            }
+            copyEngine.close();
+            fanOutCopier.close();
+            fileComparator.close();
+            Log.info(new TransferMetrics(result, transferResult).getSummary());
+            transferResult.setDone();
+        }
+        Log.debug("Finished %s", getName());
+    }
+
+    private void transferFolder(FolderAndHashcode sourceFolder, String relativePath) throws IOException {
+        // The destinations that don't have this version of the folder yet
+        List<TransferDestination> targets = Lists.newArrayListWithCapacity(destinations.size());
+        for (TransferDestination destination : destinations) {
+            HashCode destinationFingerprint = destination.getManifest().getFingerprint(relativePath);
+            if(sourceFolder.getFolderHashcode().equals(destinationFingerprint)) {
+                Log.debug("Fingerprint is equal at: %s", destination.getFolder());
+                continue;
+            }
+            File destinationFolder = destination.getFolder(relativePath);
+            if(destinationFolder.mkdirs()) {
+                transferResult.incrementFolderCount();
+                Log.debug("Created destination folder: %s", destinationFolder);
+                destination.getManifest().removeDeletedFolder(relativePath);
+            }
+            targets.add(destination);
+        }
+        if(targets.isEmpty()) {
+            // Nothing to do for these files, they still count towards the progress
+            for (FileEntry file : sourceFolder.getFiles()) {
+                transferResult.addSkippedFile(file.getSize());
+            }
+            return;
+        }
+
+        Set<TransferDestination> incompleteTargets = Sets.newHashSet();
+        for (FileEntry file : sourceFolder.getFiles()) {
+            if(cancel.get() || !throttle.acquireFile(cancel)) {
+                Log.info("Cancelled process");
+                return;
+            }
+            incompleteTargets.addAll(transferFile(file, relativePath, targets));
+        }
+        if(cancel.get()) {
+            return;
+        }
+
+        // Only the destinations that got every file remember the fingerprint
+        for (TransferDestination target : targets) {
+            if(!incompleteTargets.contains(target)) {
+                target.getManifest().putFingerprint(relativePath, sourceFolder.getFolderHashcode());
+            }
+        }
+    }
+
+    // Returns the destinations that didn't get the file
+    private List<TransferDestination> transferFile(FileEntry file, String relativePath, List<TransferDestination> targets)
+            throws IOException {
+        // Every destination compares its own copy
+        List<TransferDestination> copyTargets = Lists.newArrayListWithCapacity(targets.size());
+        List<Path> copyPaths = Lists.newArrayListWithCapacity(targets.size());
+        for (TransferDestination target : targets) {
+            Path destinationPath = new File(target.getFolder(relativePath), file.getName()).toPath();
+            long statStart = System.nanoTime();
+            BasicFileAttributes destinationAttributes = readAttributes(destinationPath);
+            latencies.recordSince(TimedPhase.STAT, statStart);
+            if(destinationAttributes != null && isEqual(file, destinationPath, destinationAttributes)) {
+                continue;
+            }
+            copyTargets.add(target);
+            copyPaths.add(destinationPath);
+        }
+        if(copyTargets.isEmpty()) {
+            Log.debug("Skipping equal file: %s", file.getPath());
+            transferResult.addSkippedFile(file.getSize());
+            return Lists.newArrayList();
+        }
+
+        Log.debug("Transferring file %n\tFrom: %s%n\tTo: %s", file.getPath(), copyPaths);
+        CopyProgress progress = throttle.throttle(transferResult, cancel);
+        List<Path> copiedPaths;
+        long copyStart = System.nanoTime();
+        try {
+            if(copyPaths.size() == 1) {
+                copiedPaths = copy(file, copyPaths.get(0), progress) ? copyPaths : Lists.newArrayList();
+            } else {
+                copiedPaths = Lists.newArrayList(fanOutCopier.copy(file, copyPaths, progress, cancel));
+                for (Path copyPath : copyPaths) {
+                    if(!copiedPaths.contains(copyPath) && !cancel.get() && copy(file, copyPath, progress)) {
+                        // Fell behind the others, so it got a read of its own
+                        copiedPaths.add(copyPath);
+                    }
+                }
+            }
+        } finally {
+            latencies.recordSince(TimedPhase.COPY, copyStart);
+        }
+
+        List<TransferDestination> failedTargets = Lists.newArrayList();
+        for (int i = 0; i < copyPaths.size(); i++) {
+            if(!copiedPaths.contains(copyPaths.get(i))) {
+                failedTargets.add(copyTargets.get(i));
+            }
+        }
+        if(failedTargets.size() < copyTargets.size()) {
+            transferResult.incrementFileCount();
+        }
+        transferResult.addProcessedFile(file.getSize());
+        return failedTargets;
+    }
+
+    // A destination that can't be written to doesn't hold up the others
+    private boolean copy(FileEntry file, Path destinationPath, CopyProgress progress) {
+        try {
+            return copyEngine.copy(file, destinationPath, readAttributes(destinationPath), progress, cancel);
+        } catch (IOException e) {
+            Log.info("Exception while transferring to: %s", destinationPath);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private boolean isEqual(FileEntry file, Path destinationPath, BasicFileAttributes destinationAttributes) throws IOException {
+        long compareStart = System.nanoTime();
+        try {
+            FileComparison comparison = fileComparator.compare(file, destinationPath, destinationAttributes, transferResult);
+            if(comparison == FileComparison.EQUAL_EXCEPT_MODIFIED_TIME && !CopyTarget.isHardLinked(destinationPath)) {
+                // Setting it on a hard link would change its other names too
+                CopyAttributes.applyModifiedTime(file, destinationPath);
+            }
+            return comparison.isEqual();
+        } finally {
+            latencies.recordSince(TimedPhase.COMPARE, compareStart);
+        }
+    }
+
+    private BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void saveManifest(DestinationManifest manifest) {
+        try {
+            if(manifest.flush()) {
+                Log.debug("Wrote manifest with %s folders to: %s", manifest.size(), manifest.getManifestFile());
+            }
+        } catch (IOException e) {
+            Log.info("Exception while writing manifest: %s", manifest.getManifestFile());
+            e.printStackTrace();
+        }
+    }
+}
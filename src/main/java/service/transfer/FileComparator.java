@@ -0,0 +1,60 @@
+package service.transfer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+// Only reads the files, whatever needs doing about the result is up to the caller
+public class FileComparator {
+
+    private final CompareStrategy strategy;
+    private final ContentComparator contentComparator;
+
+    public FileComparator(CompareStrategy strategy, ContentComparator contentComparator) {
+        this.strategy = strategy;
+        this.contentComparator = contentComparator;
+    }
+
+    public void close() {
+        contentComparator.close();
+    }
+
+    // Whether the destination file needs to be copied again
+    public FileComparison compare(FileEntry source, Path destinationPath, BasicFileAttributes destinationAttributes,
+                                  TransferProcessResult transferResult) throws IOException {
+        // A different size is always a copy
+        if(source.getSize() != destinationAttributes.size()) {
+            return FileComparison.DIFFERENT;
+        }
+
+        boolean isSameModifiedTime = source.getLastModified() == destinationAttributes.lastModifiedTime().toMillis();
+        switch (strategy) {
+            case SIZE_AND_MTIME:
+                if(isSameModifiedTime) {
+                    transferResult.incrementSkippedByMetadataCount();
+                    return FileComparison.EQUAL;
+                }
+                return FileComparison.DIFFERENT;
+            case SIZE_AND_MTIME_THEN_CONTENT:
+                if(isSameModifiedTime) {
+                    transferResult.incrementSkippedByMetadataCount();
+                    return FileComparison.EQUAL;
+                }
+                // The time is set by the caller, so the next run can decide from the metadata alone
+                return isSameContent(source, destinationPath, transferResult)
+                        ? FileComparison.EQUAL_EXCEPT_MODIFIED_TIME : FileComparison.DIFFERENT;
+            case CONTENT:
+            default:
+                return isSameContent(source, destinationPath, transferResult) ? FileComparison.EQUAL : FileComparison.DIFFERENT;
+        }
+    }
+
+    private boolean isSameContent(FileEntry source, Path destinationPath, TransferProcessResult transferResult) throws IOException {
+        transferResult.addContentCompare(source.getSize());
+        if(contentComparator.isSameContent(source.getPath(), destinationPath)) {
+            transferResult.incrementSkippedByContentCount();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,15 @@
+package service.transfer;
+
+// What FileComparator found out about a destination file
+public enum FileComparison {
+    // It needs to be copied
+    DIFFERENT,
+    // Already up to date
+    EQUAL,
+    // The same content with a different modified time, only the time needs to be set
+    EQUAL_EXCEPT_MODIFIED_TIME;
+
+    public boolean isEqual() {
+        return this != DIFFERENT;
+    }
+}
@@ -0,0 +1,43 @@
+package service.transfer;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class FileEntry {
+
+    private final Path path;
+    private final BasicFileAttributes attributes;
+
+    public FileEntry(Path path, BasicFileAttributes attributes) {
+        this.path = path;
+        this.attributes = attributes;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getName() {
+        return path.getFileName().toString();
+    }
+
+    public BasicFileAttributes getAttributes() {
+        return attributes;
+    }
+
+    public boolean isDirectory() {
+        return attributes.isDirectory();
+    }
+
+    public boolean isFile() {
+        return attributes.isRegularFile();
+    }
+
+    public long getSize() {
+        return attributes.size();
+    }
+
+    public long getLastModified() {
+        return attributes.lastModifiedTime().toMillis();
+    }
+}
@@ -1,22 +1,31 @@
 package service.transfer;
 
+import com.google.common.hash.HashCode;
+
 import java.io.File;
+import java.util.List;
 
 public class FolderAndHashcode {
 
     private final File folder;
-    private final Integer folderHashcode;
+    private final HashCode folderHashcode;
+    private final List<FileEntry> files;
 
-    public FolderAndHashcode(File folder, Integer folderHashcode) {
+    public FolderAndHashcode(File folder, HashCode folderHashcode, List<FileEntry> files) {
         this.folder = folder;
         this.folderHashcode = folderHashcode;
+        this.files = files;
     }
 
     public File getFolder() {
         return folder;
     }
 
-    public Integer getFolderHashcode() {
+    public HashCode getFolderHashcode() {
         return folderHashcode;
     }
-}
\ No newline at end of file
+
+    public List<FileEntry> getFiles() {
+        return files;
+    }
+}
@@ -0,0 +1,46 @@
+package service.transfer;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+// 128 bit Merkle fingerprint of a folder: the name, length and modified time of each file,
+// plus the name and fingerprint of each subfolder. Equal fingerprints mean the whole subtree is equal.
+public class FolderFingerprint {
+
+    public static final int BYTES = 16;
+    // Used for folders that couldn't be read, so their parent never matches by accident
+    public static final HashCode EMPTY = HashCode.fromBytes(new byte[BYTES]);
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final byte FILE_MARKER = 'F';
+    private static final byte FOLDER_MARKER = 'D';
+
+    private FolderFingerprint(){ }
+
+    public static Hasher newHasher() {
+        return HASH_FUNCTION.newHasher();
+    }
+
+    public static void appendFile(Hasher hasher, FileEntry file) {
+        hasher.putByte(FILE_MARKER);
+        putName(hasher, file.getName());
+        hasher.putLong(file.getSize());
+        hasher.putLong(file.getLastModified());
+    }
+
+    public static void appendFolder(Hasher hasher, FileEntry folder, HashCode folderFingerprint) {
+        hasher.putByte(FOLDER_MARKER);
+        putName(hasher, folder.getName());
+        hasher.putBytes(folderFingerprint.asBytes());
+    }
+
+    private static void putName(Hasher hasher, String name) {
+        // The length keeps "ab" + "c" apart from "a" + "bc"
+        hasher.putInt(name.length());
+        hasher.putString(name, StandardCharsets.UTF_8);
+    }
+}
@@ -1,16 +1,63 @@
 package service.transfer;
 
-import java.io.File;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import service.transfer.metrics.PhaseLatencies;
+import service.transfer.schedule.ITransferScheduler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PathProcessResult {
 
+    private static final long OFFER_WAIT_MILLIS = 100;
+
     private final AtomicBoolean isDone = new AtomicBoolean(false);
-    private final AtomicInteger folderCount = new AtomicInteger();
-    private final AtomicInteger fileCount = new AtomicInteger();
-    private final ConcurrentLinkedQueue<FolderAndHashcode> folderAndHashcodeList = new ConcurrentLinkedQueue<FolderAndHashcode>();
+    // Striped counters, the scan workers update them for every entry
+    private final LongAdder folderCount = new LongAdder();
+    private final LongAdder fileCount = new LongAdder();
+    private final LongAdder unchangedFolderCount = new LongAdder();
+    private final LongAdder byteCount = new LongAdder();
+    // Left out by the filter, nothing under an excluded folder is counted
+    private final LongAdder excludedFolderCount = new LongAdder();
+    private final LongAdder excludedFileCount = new LongAdder();
+    private final LongAdder excludedByteCount = new LongAdder();
+    // The size of the files handed to the transfer threads, unchanged folders are left out
+    private final LongAdder queuedByteCount = new LongAdder();
+    private final PhaseLatencies latencies;
+    // Decides which folder the transfer threads get next
+    private final ITransferScheduler scheduler;
+    private final AtomicBoolean cancel;
+    // Where the scan was compared against, empty if it wasn't known when the scan started
+    private final List<TransferDestination> destinations;
+    // Null unless files with the same content are copied once
+    private final DedupIndex dedupIndex;
+
+    public PathProcessResult(ITransferScheduler scheduler, AtomicBoolean cancel, List<TransferDestination> destinations,
+                             PhaseLatencies latencies, DedupIndex dedupIndex) {
+        this.latencies = latencies;
+        this.scheduler = scheduler;
+        this.cancel = cancel;
+        this.destinations = destinations;
+        this.dedupIndex = dedupIndex;
+    }
+
+    // The first destination, null if there is none
+    public TransferDestination getDestination() {
+        return destinations.isEmpty() ? null : destinations.get(0);
+    }
+
+    public List<TransferDestination> getDestinations() {
+        return destinations;
+    }
+
+    public DedupIndex getDedupIndex() {
+        return dedupIndex;
+    }
+
+    public PhaseLatencies getLatencies() {
+        return latencies;
+    }
 
     public boolean isDone() {
         return isDone.get();
@@ -18,32 +65,106 @@ public class PathProcessResult {
 
     public void setDone() {
         isDone.set(true);
+
+        // Tell the transfer threads there are no more folders coming
+        if(cancel.get()) {
+            // Nobody is going to take the rest
+            scheduler.clear();
+        }
+        scheduler.finish();
     }
 
-    public AtomicInteger getFolderCount() {
-        return folderCount;
+    public long getFolderCount() {
+        return folderCount.sum();
     }
 
     public void incrementFolderCount() {
-        folderCount.incrementAndGet();
+        folderCount.increment();
     }
 
-    public AtomicInteger getFileCount() {
-        return fileCount;
+    public long getFileCount() {
+        return fileCount.sum();
     }
 
     public void incrementFileCount() {
-        fileCount.incrementAndGet();
+        fileCount.increment();
+    }
+
+    public long getByteCount() {
+        return byteCount.sum();
+    }
+
+    public void addByteCount(long bytes) {
+        byteCount.add(bytes);
+    }
+
+    public long getExcludedFolderCount() {
+        return excludedFolderCount.sum();
+    }
+
+    public void incrementExcludedFolderCount() {
+        excludedFolderCount.increment();
+    }
+
+    public long getExcludedFileCount() {
+        return excludedFileCount.sum();
+    }
+
+    public long getExcludedByteCount() {
+        return excludedByteCount.sum();
+    }
+
+    public void addExcludedFile(long fileSize) {
+        excludedFileCount.increment();
+        excludedByteCount.add(fileSize);
     }
 
-    public void addFolder(FolderAndHashcode folderAndHashcode) {
-        // Save these folders for the transfer thread
-        folderAndHashcodeList.offer(folderAndHashcode);
+    public long getQueuedByteCount() {
+        return queuedByteCount.sum();
+    }
+
+    public long getUnchangedFolderCount() {
+        return unchangedFolderCount.sum();
+    }
+
+    public void incrementUnchangedFolderCount() {
+        unchangedFolderCount.increment();
+    }
+
+    public int getQueueSize() {
+        return scheduler.size();
+    }
+
+    public int getQueueCapacity() {
+        return scheduler.getCapacity();
+    }
 
-        //REVIEW: We might want to wait if the queue is too big.
+    // Save these folders for the transfer thread, waits while the queue is full.
+    // Returns false if the user cancelled while waiting.
+    public boolean addFolder(FolderAndHashcode folderAndHashcode) {
+        try {
+            while (!scheduler.offer(folderAndHashcode, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if(cancel.get()) {
+                    return false;
+                }
+            }
+            for (FileEntry file : folderAndHashcode.getFiles()) {
+                queuedByteCount.add(file.getSize());
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
-    public FolderAndHashcode nextFolder() {
-        return folderAndHashcodeList.poll();
+    // Waits for the next folder for this transfer worker, returns null once all the folders have been taken
+    public FolderAndHashcode nextFolder(int workerIndex) {
+        try {
+            return scheduler.take(workerIndex);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
     }
 }
@@ -1,146 +1,356 @@
 package service.transfer;
 
 import com.google.common.collect.Lists;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import service.log.Log;
+import service.transfer.filter.ScanFilter;
+import service.transfer.metrics.TimedPhase;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ProcessFolderThread extends AbstractServiceThread {
     private final File sourceFolderPath;
     private final PathProcessResult result;
+    private final int parallelism;
+    // The fingerprints already at each destination, empty if the destinations aren't known yet
+    private final List<DestinationManifest> manifests;
+    // Only these folders are scanned again, the rest keep their fingerprints from the manifest. Null scans everything.
+    private final SyncScope scope;
+    // Lists every folder on its own virtual thread, null to use a fork-join pool instead
+    private final VirtualTaskExecutor taskExecutor;
+    // Leaves out the entries that aren't wanted before they're looked at any further, null to take everything
+    private final ScanFilter filter;
 
-    public ProcessFolderThread(File sourceFolderPath, PathProcessResult result, AtomicBoolean cancel){
+    public ProcessFolderThread(File sourceFolderPath, PathProcessResult result, AtomicBoolean cancel, int parallelism, List<DestinationManifest> manifests,
+                               SyncScope scope, VirtualTaskExecutor taskExecutor, ScanFilter filter){
         super("process-folder-thread", cancel);
         this.sourceFolderPath = sourceFolderPath;
         this.result = result;
+        this.parallelism = parallelism;
+        this.manifests = manifests;
+        this.scope = scope;
+        this.taskExecutor = taskExecutor;
+        this.filter = filter;
     }
 
     public void run(){
-        logMsg("Started process-folder-thread", true);
-        // Start recursive process
-        processFolder(sourceFolderPath, result, cancel);
-        result.setDone();
-        logMsg("Finished process-folder-thread", true);
+        try {
+            if(taskExecutor == null) {
+                processWithForkJoin();
+            } else {
+                processWithVirtualThreads();
+            }
+        } finally {
+            // Always let the transfer threads know, even if the scan failed
+            result.setDone();
+        }
+        Log.debug("Finished process-folder-thread");
+    }
+
+    private void processWithForkJoin() {
+        Log.debug("Started process-folder-thread with parallelism %s", parallelism);
+        // Start recursive process, each folder is its own task
+        ForkJoinPool pool = new ForkJoinPool(parallelism, this::newWorkerThread, null, false);
+        try {
+            pool.invoke(new ProcessFolderTask(sourceFolderPath.toPath()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void processWithVirtualThreads() {
+        Log.debug("Started process-folder-thread with virtual threads");
+        try {
+            getFingerprint(taskExecutor.submit(() -> processFolder(sourceFolderPath.toPath())));
+        } finally {
+            taskExecutor.shutdown();
+        }
+    }
+
+    private ForkJoinWorkerThread newWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("process-folder-worker-" + thread.getPoolIndex());
+        return thread;
     }
 
-    private int processFolder(File folder, PathProcessResult result, AtomicBoolean cancel){
-        String folderName = folder.toString();
-        logMsg("Processing folder: " + folderName, false);
+    private HashCode processFolder(Path folder){
+        HashCode knownFingerprint = getKnownFingerprint(folder);
+        if(knownFingerprint != null) {
+            // Nothing changed in here since the last pass
+            result.incrementUnchangedFolderCount();
+            return knownFingerprint;
+        }
+        Log.info("Processing folder: %s", folder);
         try {
-            File[] fileArray = folder.listFiles();
-            if(fileArray == null){
-                logMsg("The given file needs to be a folder: " + folder, false);
-                return 0;
+            // List the folder, reading the attributes of every entry once
+            List<Path> failedEntries = Lists.newLinkedList();
+            List<FileEntry> entries;
+            try {
+                entries = listFolder(folder, failedEntries);
+                if(entries == null) {
+                    // Cancelled while waiting for the device
+                    return FolderFingerprint.EMPTY;
+                }
+            } catch (NotDirectoryException e) {
+                Log.info("The given file needs to be a folder: %s", folder);
+                return FolderFingerprint.EMPTY;
+            }
+            for (Path failedEntry : failedEntries) {
+                Log.info(" *** Skipping unreadable file: %s", failedEntry);
             }
 
             // Get all the subfolders and files
-            FoldersAndFiles folderContents = getFoldersAndFiles(fileArray);
+            FoldersAndFiles folderContents = getFoldersAndFiles(folder, entries);
             if(folderContents == null){
                 // Cancelled
-                return 0;
+                return FolderFingerprint.EMPTY;
             }
-            List<File> subfolders = folderContents.getSubfolders();
-            List<File> files = folderContents.getFiles();
+            List<FileEntry> subfolders = folderContents.getSubfolders();
+            List<FileEntry> files = folderContents.getFiles();
 
-            // Generate a hash for this folder.
-            HashCodeBuilder hashcode  = new HashCodeBuilder();
+            // Generate a fingerprint for this folder from its subfolders' fingerprints and its files
+            Hasher fingerprint = FolderFingerprint.newHasher();
 
-            // Depth-first search
-            boolean isCancelled = processSubFolders(subfolders, result, cancel, hashcode);
+            // Depth-first search, the subfolders are processed in parallel
+            boolean isCancelled = processSubFolders(subfolders, fingerprint);
             if(isCancelled){
-                return 0;
+                return FolderFingerprint.EMPTY;
             }
 
-            // Add the files into the hashcode
-            isCancelled = processFiles(files, cancel, hashcode);
+            // Add the files into the fingerprint
+            isCancelled = processFiles(files, fingerprint);
             if(isCancelled){
-                return 0;
+                return FolderFingerprint.EMPTY;
             }
 
-            // Save the hashcode for this folder
-            Integer folderHashcode = hashcode.build();
-            logMsg(String.format("Processed folder %s: %n\tFolder count: %s %n\tFile count: %s %n\tHashcode: %s",
-                    folderName, subfolders.size(), files.size(), folderHashcode), true);
-            result.addFolder(new FolderAndHashcode(folder, folderHashcode));
-            return folderHashcode;
+            HashCode folderFingerprint = fingerprint.hash();
+            Log.debug("Processed folder %s: %n\tFolder count: %s %n\tFile count: %s %n\tFingerprint: %s",
+                    folder, subfolders.size(), files.size(), folderFingerprint);
+
+            // The same fingerprint at the destination means this whole subtree is unchanged,
+            // its subfolders have already been left out the same way
+            if(isUnchangedAtDestination(folder, folderFingerprint)) {
+                result.incrementUnchangedFolderCount();
+                return folderFingerprint;
+            }
+
+            if(result.getDedupIndex() != null) {
+                // Grouped by size, the files that are alone in their size don't need to be hashed
+                result.getDedupIndex().addScannedFiles(files);
+            }
+
+            // Save the fingerprint for this folder, along with the files so they don't need to be listed again
+            if(!result.addFolder(new FolderAndHashcode(folder.toFile(), folderFingerprint, files))) {
+                // Cancelled while waiting for the transfer threads
+                return FolderFingerprint.EMPTY;
+            }
+            return folderFingerprint;
 
         }catch (Exception e){
-            logMsg("Exception while processing folder '" + folderName + "': " + e.getMessage(), false);
+            Log.info("Exception while processing folder '%s': %s", folder, e.getMessage());
             e.printStackTrace();
-            return 0;
+            return FolderFingerprint.EMPTY;
         }
     }
 
-    private boolean processSubFolders(List<File> subfolders, PathProcessResult result, AtomicBoolean cancel, HashCodeBuilder hashcode) {
-        for (File subfolder : subfolders) {
-            // Recursive call
-            int subfolderHashcode = processFolder(subfolder, result, cancel);
-            hashcode.append(subfolderHashcode);
+    private List<FileEntry> listFolder(Path folder, List<Path> failedEntries) throws IOException {
+        Semaphore deviceSemaphore = null;
+        if(taskExecutor != null) {
+            deviceSemaphore = taskExecutor.acquireSource(folder, cancel);
+            if(deviceSemaphore == null) {
+                return null;
+            }
+        }
+        try {
+            long listStart = System.nanoTime();
+            List<FileEntry> entries = DirectoryLister.list(folder, failedEntries);
+            result.getLatencies().recordSince(TimedPhase.LIST, listStart);
+            return entries;
+        } finally {
+            DeviceConcurrencyLimiter.release(deviceSemaphore);
+        }
+    }
 
-            // Check if the user cancelled
-            if(cancel.get()) {
-                logMsg("Cancelled process", false);
-                return true;
+    // The fingerprint from the manifest for a folder outside the scope, null if it has to be scanned.
+    // A continuous sync only has the one destination.
+    private HashCode getKnownFingerprint(Path folder) {
+        if(scope == null || manifests.size() != 1 || scope.isAffected(folder)) {
+            return null;
+        }
+        return manifests.get(0).getFingerprint(TransferDestination.getRelativePath(sourceFolderPath, folder.toFile()));
+    }
+
+    // Only unchanged if it's unchanged at every destination
+    private boolean isUnchangedAtDestination(Path folder, HashCode folderFingerprint) {
+        if(manifests.isEmpty()) {
+            return false;
+        }
+        String relativePath = TransferDestination.getRelativePath(sourceFolderPath, folder.toFile());
+        for (DestinationManifest manifest : manifests) {
+            if(!folderFingerprint.equals(manifest.getFingerprint(relativePath))) {
+                return false;
             }
         }
+        return true;
+    }
+
+    private boolean processSubFolders(List<FileEntry> subfolders, Hasher fingerprint) {
+        List<HashCode> subfolderFingerprints = taskExecutor == null ? forkSubFolders(subfolders) : startSubFolders(subfolders);
+
+        // Added in the original order so the fingerprint is the same on every run
+        for (int i = 0; i < subfolders.size(); i++) {
+            FolderFingerprint.appendFolder(fingerprint, subfolders.get(i), subfolderFingerprints.get(i));
+        }
+
+        // Check if the user cancelled
+        if(cancel.get()) {
+            Log.info("Cancelled process");
+            return true;
+        }
         return false;
     }
 
-    private boolean processFiles(List<File> files, AtomicBoolean cancel, HashCodeBuilder hashcode) {
-        for (File file : files) {
-            appendToHashcode(file, hashcode);
+    private List<HashCode> forkSubFolders(List<FileEntry> subfolders) {
+        // Fork a task for each subfolder
+        List<ProcessFolderTask> tasks = Lists.newArrayListWithCapacity(subfolders.size());
+        for (FileEntry subfolder : subfolders) {
+            tasks.add(new ProcessFolderTask(subfolder.getPath()));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        List<HashCode> subfolderFingerprints = Lists.newArrayListWithCapacity(tasks.size());
+        for (ProcessFolderTask task : tasks) {
+            subfolderFingerprints.add(task.join());
+        }
+        return subfolderFingerprints;
+    }
+
+    private List<HashCode> startSubFolders(List<FileEntry> subfolders) {
+        // Start a virtual thread for each subfolder, this one just waits for them
+        List<Future<HashCode>> tasks = Lists.newArrayListWithCapacity(subfolders.size());
+        for (FileEntry subfolder : subfolders) {
+            tasks.add(taskExecutor.submit(() -> cancel.get() ? FolderFingerprint.EMPTY : processFolder(subfolder.getPath())));
+        }
+
+        List<HashCode> subfolderFingerprints = Lists.newArrayListWithCapacity(tasks.size());
+        for (Future<HashCode> task : tasks) {
+            subfolderFingerprints.add(getFingerprint(task));
+        }
+        return subfolderFingerprints;
+    }
+
+    private HashCode getFingerprint(Future<HashCode> task) {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // processFolder catches its own exceptions, this shouldn't happen
+            e.getCause().printStackTrace();
+            return FolderFingerprint.EMPTY;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FolderFingerprint.EMPTY;
+        }
+    }
+
+    private boolean processFiles(List<FileEntry> files, Hasher fingerprint) {
+        for (FileEntry file : files) {
+            FolderFingerprint.appendFile(fingerprint, file);
 
             // Check if the user cancelled
             if(cancel.get()) {
-                logMsg("Cancelled process", false);
+                Log.info("Cancelled process");
                 return true;
             }
         }
         return false;
     }
 
-    private FoldersAndFiles getFoldersAndFiles(File[] folderContents){
-        List<File> subfolders = Lists.newLinkedList();
-        List<File> files = Lists.newLinkedList();
-        for (File f : folderContents){
-            if (f.isDirectory()) {
+    private FoldersAndFiles getFoldersAndFiles(Path folder, List<FileEntry> folderContents){
+        List<FileEntry> subfolders = Lists.newLinkedList();
+        List<FileEntry> files = Lists.newLinkedList();
+        List<String> folderSegments = filter == null ? null : getSegments(folder);
+        for (FileEntry f : folderContents){
+            if (filter != null && isExcluded(folderSegments, f)) {
+                // Left out before it's descended into, nothing under an excluded folder is ever listed
+                Log.debug("Excluded: %s", f.getPath());
+            } else if (f.isDirectory()) {
                 result.incrementFolderCount();
                 subfolders.add(f);
             } else if (f.isFile()) {
                 result.incrementFileCount();
+                result.addByteCount(f.getSize());
                 files.add(f);
             } else {
-                logMsg(" *** Skipping unknown file: " + f, false);
+                Log.info(" *** Skipping unknown file: %s", f.getPath());
             }
 
             // Check if the user cancelled
             if(cancel.get()) {
-                logMsg("Cancelled process", false);
+                Log.info("Cancelled process");
                 return null;
             }
         }
         return new FoldersAndFiles(subfolders, files);
     }
 
-    private void appendToHashcode(File f, HashCodeBuilder builder) {
-        builder.append(f.getName());
-        builder.append(f.getTotalSpace());
-        builder.append(f.lastModified());
+    private boolean isExcluded(List<String> folderSegments, FileEntry entry) {
+        if(entry.isDirectory()) {
+            if(filter.isExcludedFolder(folderSegments, entry)) {
+                result.incrementExcludedFolderCount();
+                return true;
+            }
+        } else if(entry.isFile() && filter.isExcludedFile(folderSegments, entry)) {
+            result.addExcludedFile(entry.getSize());
+            return true;
+        }
+        return false;
+    }
+
+    // The names of the folders from the source folder down to this one
+    private List<String> getSegments(Path folder) {
+        List<String> segments = Lists.newArrayList();
+        for (Path segment : sourceFolderPath.toPath().relativize(folder)) {
+            if(!segment.toString().isEmpty()) {
+                segments.add(segment.toString());
+            }
+        }
+        return segments;
+    }
+
+    private class ProcessFolderTask extends RecursiveTask<HashCode> {
+        private static final long serialVersionUID = 1L;
+        private final Path folder;
+        ProcessFolderTask(Path folder){
+            this.folder = folder;
+        }
+        @Override
+        protected HashCode compute() {
+            // Check if the user cancelled before touching the folder
+            if(cancel.get()) {
+                return FolderFingerprint.EMPTY;
+            }
+            return processFolder(folder);
+        }
     }
 
     private class FoldersAndFiles {
-        private final List<File> subfolders;
-        private final List<File> files;
-        FoldersAndFiles(List<File> subfolders, List<File> files){
+        private final List<FileEntry> subfolders;
+        private final List<FileEntry> files;
+        FoldersAndFiles(List<FileEntry> subfolders, List<FileEntry> files){
             this.subfolders = subfolders;
             this.files = files;
         }
-        public List<File> getSubfolders() {
+        public List<FileEntry> getSubfolders() {
             return subfolders;
         }
-        public List<File> getFiles() {
+        public List<FileEntry> getFiles() {
             return files;
         }
     }
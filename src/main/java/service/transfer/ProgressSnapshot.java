@@ -0,0 +1,169 @@
+package service.transfer;
+
+// All the progress of a transfer at one moment, taken together so the figures agree with each other.
+// The rates are smoothed over the earlier snapshots, so they don't jump around between refreshes.
+public class ProgressSnapshot {
+
+    private static final double SMOOTHING = 0.3;
+    // A queue this full means the scan is waiting on the transfer threads
+    private static final double FULL_QUEUE_RATIO = 0.9;
+
+    private final long takenNanos;
+    private final long elapsedNanos;
+    private final long scannedFolderCount;
+    private final long scannedFileCount;
+    private final long scannedByteCount;
+    private final long unchangedFolderCount;
+    private final boolean isScanDone;
+    private final int queueSize;
+    private final int queueCapacity;
+    private final long queuedByteCount;
+    private final long transferFolderCount;
+    private final long transferFileCount;
+    private final long writtenByteCount;
+    private final long processedFileCount;
+    private final long processedByteCount;
+    private final boolean isDone;
+    private final double bytesPerSecond;
+    private final double filesPerSecond;
+    private final double processedBytesPerSecond;
+
+    private ProgressSnapshot(PathProcessResult result, TransferProcessResult transferResult, ProgressSnapshot previous) {
+        takenNanos = System.nanoTime();
+        elapsedNanos = takenNanos - transferResult.getStartNanos();
+        // Read isDone first, so a finished snapshot always has the final counts
+        isDone = transferResult.isDone();
+        isScanDone = result.isDone();
+        scannedFolderCount = result.getFolderCount();
+        scannedFileCount = result.getFileCount();
+        scannedByteCount = result.getByteCount();
+        unchangedFolderCount = result.getUnchangedFolderCount();
+        queueSize = result.getQueueSize();
+        queueCapacity = result.getQueueCapacity();
+        queuedByteCount = result.getQueuedByteCount();
+        transferFolderCount = transferResult.getFolderCount();
+        transferFileCount = transferResult.getFileCount();
+        writtenByteCount = transferResult.getWrittenByteCount();
+        processedFileCount = transferResult.getProcessedFileCount();
+        processedByteCount = transferResult.getProcessedByteCount();
+
+        if(previous == null) {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            bytesPerSecond = writtenByteCount / seconds;
+            filesPerSecond = processedFileCount / seconds;
+            processedBytesPerSecond = processedByteCount / seconds;
+        } else {
+            double seconds = Math.max(takenNanos - previous.takenNanos, 1) / 1e9;
+            bytesPerSecond = smooth(previous.bytesPerSecond, (writtenByteCount - previous.writtenByteCount) / seconds);
+            filesPerSecond = smooth(previous.filesPerSecond, (processedFileCount - previous.processedFileCount) / seconds);
+            processedBytesPerSecond = smooth(previous.processedBytesPerSecond, (processedByteCount - previous.processedByteCount) / seconds);
+        }
+    }
+
+    // The previous snapshot is used for the rates, null for the first one
+    public static ProgressSnapshot capture(PathProcessResult result, TransferProcessResult transferResult, ProgressSnapshot previous) {
+        return new ProgressSnapshot(result, transferResult, previous);
+    }
+
+    private static double smooth(double previousRate, double currentRate) {
+        return previousRate + SMOOTHING * (currentRate - previousRate);
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long getScannedFolderCount() {
+        return scannedFolderCount;
+    }
+
+    public long getScannedFileCount() {
+        return scannedFileCount;
+    }
+
+    public long getScannedByteCount() {
+        return scannedByteCount;
+    }
+
+    public long getUnchangedFolderCount() {
+        return unchangedFolderCount;
+    }
+
+    public boolean isScanDone() {
+        return isScanDone;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getTransferFolderCount() {
+        return transferFolderCount;
+    }
+
+    public long getTransferFileCount() {
+        return transferFileCount;
+    }
+
+    public long getWrittenByteCount() {
+        return writtenByteCount;
+    }
+
+    public long getProcessedFileCount() {
+        return processedFileCount;
+    }
+
+    public long getProcessedByteCount() {
+        return processedByteCount;
+    }
+
+    public boolean isDone() {
+        return isDone;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public double getFilesPerSecond() {
+        return filesPerSecond;
+    }
+
+    public long getRemainingByteCount() {
+        return Math.max(0, queuedByteCount - processedByteCount);
+    }
+
+    // Seconds left for what has been scanned so far, -1 if there's no rate to go by yet.
+    // While the scan is still running this is a lower bound.
+    public long getEtaSeconds() {
+        if(isDone) {
+            return 0;
+        }
+        // Files only count as processed once they are done, the written bytes keep moving during a large file
+        double rate = Math.max(processedBytesPerSecond, bytesPerSecond);
+        if(rate < 1) {
+            return -1;
+        }
+        return (long) Math.ceil(getRemainingByteCount() / rate);
+    }
+
+    // What the transfer is waiting on
+    public String getBottleneck() {
+        if(isDone) {
+            return "-";
+        }
+        if(!isScanDone && queueSize == 0) {
+            // The transfer threads are waiting for folders
+            return "Scan";
+        }
+        if(queueSize >= queueCapacity * FULL_QUEUE_RATIO) {
+            // The scan is waiting for room in the queue
+            return "Transfer I/O";
+        }
+        return isScanDone ? "Transfer I/O" : "Balanced";
+    }
+}
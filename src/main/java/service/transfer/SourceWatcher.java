@@ -0,0 +1,130 @@
+package service.transfer;
+
+import com.google.common.collect.Maps;
+import service.log.Log;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Watches every folder of the source tree and turns the events into the scope of the next sync pass.
+// The events are coalesced per folder, and only handed over once the tree has been quiet for a while.
+// Only the thread running the continuous sync uses it.
+public class SourceWatcher {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final Path rootFolder;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedFolders = Maps.newHashMap();
+
+    private SourceWatcher(Path rootFolder, WatchService watchService) {
+        this.rootFolder = rootFolder;
+        this.watchService = watchService;
+    }
+
+    public static SourceWatcher open(Path rootFolder) throws IOException {
+        SourceWatcher watcher = new SourceWatcher(rootFolder, rootFolder.getFileSystem().newWatchService());
+        watcher.registerTree(rootFolder);
+        return watcher;
+    }
+
+    public int getWatchedFolderCount() {
+        return watchedFolders.size();
+    }
+
+    // Waits for the first change, then until nothing has changed for quietMillis, but no longer than maxDelayMillis
+    // after the first change so a busy tree still gets synced. Returns null if cancelled meanwhile.
+    public SyncScope awaitChanges(long quietMillis, long maxDelayMillis, AtomicBoolean cancel) {
+        SyncScope scope = new SyncScope(rootFolder);
+        long firstChangeMillis = 0;
+        long lastChangeMillis = 0;
+        try {
+            while (!cancel.get()) {
+                WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                long now = System.currentTimeMillis();
+                if(key != null) {
+                    handleEvents(key, scope);
+                    lastChangeMillis = now;
+                    if(firstChangeMillis == 0) {
+                        firstChangeMillis = now;
+                    }
+                }
+                if(!scope.isEmpty() && (now - lastChangeMillis >= quietMillis || now - firstChangeMillis >= maxDelayMillis)) {
+                    return scope;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed while waiting
+        }
+        return null;
+    }
+
+    private void handleEvents(WatchKey key, SyncScope scope) {
+        Path folder = watchedFolders.get(key);
+        if(folder == null) {
+            key.cancel();
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == OVERFLOW) {
+                // Events were lost, so everything under this folder has to be looked at again
+                Log.info("Too many changes to keep track of, scanning again: %s", folder);
+                scope.addRescanFolder(folder);
+                registerTree(folder);
+                continue;
+            }
+
+            // Any change to an entry changes the fingerprint of the folder it's in
+            Path entry = folder.resolve((Path) event.context());
+            Log.debug("Source changed: %s %s", event.kind().name(), entry);
+            scope.addDirtyFolder(folder);
+            if(event.kind() == ENTRY_CREATE && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                // A new folder, or one moved in with everything in it. The manifest doesn't know it yet.
+                registerTree(entry);
+                scope.addRescanFolder(entry);
+            }
+        }
+        if(!key.reset()) {
+            // The folder is gone, the folder it was in got an event for that
+            watchedFolders.remove(key);
+        }
+    }
+
+    // Registers the folder and every folder under it, the ones already watched keep their key
+    private void registerTree(Path folder) {
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    try {
+                        watchedFolders.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                    } catch (IOException e) {
+                        Log.info("Couldn't watch folder: %s", dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    Log.info("Couldn't watch folder: %s", file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            Log.info("Couldn't watch folder: %s", folder);
+            e.printStackTrace();
+        }
+    }
+
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
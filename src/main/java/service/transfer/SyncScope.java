@@ -0,0 +1,70 @@
+package service.transfer;
+
+import com.google.common.collect.Sets;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+// The folders a continuous sync pass has to look at again, collected from the file system events.
+// A dirty folder is listed again, its parents up to the root are listed again because their fingerprints change,
+// and every other folder keeps the fingerprint the manifest has for it. A rescanned folder is scanned with
+// everything under it, for when events were lost.
+public class SyncScope {
+
+    private final Path rootFolder;
+    private final Set<Path> dirtyFolders = Sets.newHashSet();
+    private final Set<Path> rescanFolders = Sets.newHashSet();
+    // The dirty folders and all their parents up to the root
+    private final Set<Path> affectedFolders = Sets.newHashSet();
+
+    public SyncScope(Path rootFolder) {
+        this.rootFolder = rootFolder;
+    }
+
+    public void addDirtyFolder(Path folder) {
+        if(!folder.startsWith(rootFolder)) {
+            return;
+        }
+        dirtyFolders.add(folder);
+        for (Path parent = folder; parent != null && parent.startsWith(rootFolder); parent = parent.getParent()) {
+            if(!affectedFolders.add(parent)) {
+                // Its parents are already in there
+                break;
+            }
+        }
+    }
+
+    public void addRescanFolder(Path folder) {
+        if(!folder.startsWith(rootFolder)) {
+            return;
+        }
+        rescanFolders.add(folder);
+        addDirtyFolder(folder);
+    }
+
+    public boolean isEmpty() {
+        return dirtyFolders.isEmpty();
+    }
+
+    public int getDirtyFolderCount() {
+        return dirtyFolders.size();
+    }
+
+    public int getRescanFolderCount() {
+        return rescanFolders.size();
+    }
+
+    // False if the folder and everything under it can keep the fingerprint it had
+    public boolean isAffected(Path folder) {
+        return affectedFolders.contains(folder) || isRescanned(folder);
+    }
+
+    private boolean isRescanned(Path folder) {
+        for (Path parent = folder; parent != null && parent.startsWith(rootFolder); parent = parent.getParent()) {
+            if(rescanFolders.contains(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
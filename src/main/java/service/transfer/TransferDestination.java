@@ -0,0 +1,59 @@
+package service.transfer;
+
+import service.transfer.bundle.Bundle;
+
+import java.io.File;
+import java.nio.file.Path;
+
+public class TransferDestination {
+
+    private final File folder;
+    private final DestinationManifest manifest;
+    // Null when resuming is turned off
+    private final TransferJournal journal;
+    // Null when the destination isn't indexed up front
+    private final DestinationIndex index;
+    // Null unless the files go into a bundle instead of a file each
+    private final Bundle bundle;
+
+    public TransferDestination(File folder, DestinationManifest manifest, TransferJournal journal, DestinationIndex index,
+                               Bundle bundle) {
+        this.folder = folder;
+        this.manifest = manifest;
+        this.journal = journal;
+        this.index = index;
+        this.bundle = bundle;
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    public DestinationManifest getManifest() {
+        return manifest;
+    }
+
+    public TransferJournal getJournal() {
+        return journal;
+    }
+
+    // Waits for the index, null if there is none or it couldn't list the whole destination
+    public DestinationIndex getIndex() {
+        return index != null && index.awaitReady() ? index : null;
+    }
+
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    // The source folder path minus the parent of the root source folder, always with '/' separators
+    public static String getRelativePath(File rootSourceFolder, File sourceFolder) {
+        Path rootPath = rootSourceFolder.toPath();
+        Path basePath = rootPath.getParent() == null ? rootPath : rootPath.getParent();
+        return basePath.relativize(sourceFolder.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    public File getFolder(String relativePath) {
+        return new File(folder, relativePath);
+    }
+}
@@ -0,0 +1,266 @@
+package service.transfer;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import service.transfer.metrics.LatencyHistogram;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+// Write-ahead journal in the destination, so a cancelled or crashed transfer can carry on where it stopped.
+// It remembers the finished folders, the finished files and how far the large files got.
+// Records are queued and written in batches by one thread, the workers only wait for the disk when it falls behind.
+// Only the large files are recorded as finished, the small ones are just compared again after a crash.
+public class TransferJournal {
+
+    private static final byte FOLDER_DONE = 1;
+    private static final byte FILE_DONE = 2;
+    private static final byte FILE_PROGRESS = 3;
+    private static final long FLUSH_INTERVAL_MILLIS = 500;
+    private static final int MAX_PENDING_RECORDS = 64 * 1024;
+
+    private final Path journalFile;
+    private final long checkpointSize;
+    private final LatencyHistogram fsyncLatency;
+    private final Map<String, FileState> doneFiles = new ConcurrentHashMap<>();
+    private final Map<String, FileState> partialFiles = new ConcurrentHashMap<>();
+    private final BlockingQueue<Record> pendingRecords = new LinkedBlockingQueue<>(MAX_PENDING_RECORDS);
+    private final ScheduledExecutorService flushService;
+    private FileChannel channel;
+    private DataOutputStream out;
+
+    private TransferJournal(Path journalFile, long checkpointSize, LatencyHistogram fsyncLatency) {
+        this.journalFile = journalFile;
+        this.checkpointSize = checkpointSize;
+        this.fsyncLatency = fsyncLatency;
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("transfer-journal-thread-%d").setDaemon(true).build();
+        this.flushService = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    // Replays what an earlier run left behind, the finished folders go straight into the manifest
+    public static TransferJournal open(File destinationFolderPath, DestinationManifest manifest, long checkpointSize,
+                                       LatencyHistogram fsyncLatency) throws IOException {
+        TransferJournal journal = new TransferJournal(destinationFolderPath.toPath().resolve(TransferService.JOURNAL_FILE_NAME),
+                checkpointSize, fsyncLatency);
+        List<Record> records = journal.replay(manifest);
+
+        // Start a compacted journal with what is still useful, then keep appending to it
+        journal.compact(records);
+        journal.channel = FileChannel.open(journal.journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journal.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(journal.channel)));
+        journal.flushService.scheduleWithFixedDelay(journal::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return journal;
+    }
+
+    // Written to a temporary file and moved over the old journal, so a crash in between still leaves the old one
+    private void compact(List<Record> records) throws IOException {
+        Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        try (FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(tempChannel)));
+            for (Record record : records) {
+                record.write(tempOut);
+            }
+            tempOut.flush();
+            long forceStart = System.nanoTime();
+            tempChannel.force(false);
+            fsyncLatency.recordSince(forceStart);
+        }
+        Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Record> replay(DestinationManifest manifest) throws IOException {
+        List<Record> folderRecords = Lists.newArrayList();
+        if(!Files.isRegularFile(journalFile)) {
+            return folderRecords;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            while (true) {
+                Record record = Record.read(in);
+                switch (record.type) {
+                    case FOLDER_DONE:
+                        manifest.putFingerprint(record.relativePath, record.fingerprint);
+                        folderRecords.add(record);
+                        break;
+                    case FILE_DONE:
+                        doneFiles.put(record.relativePath, record.state);
+                        partialFiles.remove(record.relativePath);
+                        break;
+                    case FILE_PROGRESS:
+                        partialFiles.put(record.relativePath, record.state);
+                        break;
+                    default:
+                        throw new EOFException("Unknown record " + record.type);
+                }
+            }
+        } catch (EOFException e) {
+            // The end, or a record cut short by a crash
+        }
+
+        List<Record> records = Lists.newArrayList(folderRecords);
+        doneFiles.forEach((relativePath, state) -> records.add(new Record(FILE_DONE, relativePath, null, state)));
+        partialFiles.forEach((relativePath, state) -> records.add(new Record(FILE_PROGRESS, relativePath, null, state)));
+        return records;
+    }
+
+    public long getCheckpointSize() {
+        return checkpointSize;
+    }
+
+    // True if an earlier run already copied this exact version of the file, and the destination still looks like it
+    public boolean isFileDone(String relativeFilePath, FileEntry source, BasicFileAttributes destinationAttributes) {
+        FileState state = doneFiles.get(relativeFilePath);
+        return state != null && state.isSameVersion(source) && destinationAttributes != null
+                && destinationAttributes.size() == source.getSize()
+                && destinationAttributes.lastModifiedTime().toMillis() == source.getLastModified();
+    }
+
+    // Where an earlier run got to with this exact version of the file, 0 to start from the beginning
+    public long getResumeOffset(String relativeFilePath, FileEntry source, long destinationSize) {
+        FileState state = partialFiles.get(relativeFilePath);
+        if(state == null || !state.isSameVersion(source) || state.offset > destinationSize) {
+            return 0;
+        }
+        return state.offset;
+    }
+
+    public void recordFolderDone(String relativePath, HashCode fingerprint) {
+        queue(new Record(FOLDER_DONE, relativePath, fingerprint, null));
+    }
+
+    // Only files of at least the checkpoint size are recorded. Their data is forced to disk on the calling thread first,
+    // the copy engines leave it in the page cache and a crash could lose it after the record is on disk.
+    public void recordFileDone(String relativeFilePath, FileEntry source, Path destinationPath) throws IOException {
+        partialFiles.remove(relativeFilePath);
+        if(source.getSize() < checkpointSize) {
+            return;
+        }
+        long forceStart = System.nanoTime();
+        try (FileChannel destinationChannel = FileChannel.open(destinationPath, StandardOpenOption.READ)) {
+            destinationChannel.force(false);
+        } finally {
+            fsyncLatency.recordSince(forceStart);
+        }
+        queue(new Record(FILE_DONE, relativeFilePath, null, new FileState(source, 0)));
+    }
+
+    public void recordFileProgress(String relativeFilePath, FileEntry source, long offset) {
+        queue(new Record(FILE_PROGRESS, relativeFilePath, null, new FileState(source, offset)));
+    }
+
+    // Only waits for the disk when the journal thread has fallen behind, then writes the batch itself
+    private void queue(Record record) {
+        while (!pendingRecords.offer(record)) {
+            flushQuietly();
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if(pendingRecords.isEmpty()) {
+            return;
+        }
+        Record record;
+        while ((record = pendingRecords.poll()) != null) {
+            record.write(out);
+        }
+        out.flush();
+        long forceStart = System.nanoTime();
+        channel.force(false);
+        fsyncLatency.recordSince(forceStart);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Writes out the last records, the journal is kept for the next run
+    public void close() throws IOException {
+        flushService.shutdown();
+        synchronized (this) {
+            flush();
+            out.close();
+        }
+    }
+
+    // Everything made it into the manifest, so the journal isn't needed anymore
+    public void delete() throws IOException {
+        flushService.shutdown();
+        synchronized (this) {
+            pendingRecords.clear();
+            out.close();
+            Files.deleteIfExists(journalFile);
+        }
+    }
+
+    private static class FileState {
+        private final long size;
+        private final long lastModified;
+        private final long offset;
+
+        FileState(long size, long lastModified, long offset) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.offset = offset;
+        }
+
+        FileState(FileEntry source, long offset) {
+            this(source.getSize(), source.getLastModified(), offset);
+        }
+
+        boolean isSameVersion(FileEntry source) {
+            return size == source.getSize() && lastModified == source.getLastModified();
+        }
+    }
+
+    private static class Record {
+        private final byte type;
+        private final String relativePath;
+        private final HashCode fingerprint;
+        private final FileState state;
+
+        Record(byte type, String relativePath, HashCode fingerprint, FileState state) {
+            this.type = type;
+            this.relativePath = relativePath;
+            this.fingerprint = fingerprint;
+            this.state = state;
+        }
+
+        static Record read(DataInputStream in) throws IOException {
+            byte type = in.readByte();
+            String relativePath = in.readUTF();
+            if(type == FOLDER_DONE) {
+                byte[] fingerprint = new byte[FolderFingerprint.BYTES];
+                in.readFully(fingerprint);
+                return new Record(type, relativePath, HashCode.fromBytes(fingerprint), null);
+            }
+            FileState state = new FileState(in.readLong(), in.readLong(), in.readLong());
+            return new Record(type, relativePath, null, state);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(type);
+            out.writeUTF(relativePath);
+            if(type == FOLDER_DONE) {
+                out.write(fingerprint.asBytes());
+                return;
+            }
+            out.writeLong(state.size);
+            out.writeLong(state.lastModified);
+            out.writeLong(state.offset);
+        }
+    }
+}
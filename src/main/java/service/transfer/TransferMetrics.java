@@ -0,0 +1,164 @@
+package service.transfer;
+
+import com.google.common.collect.Lists;
+import service.transfer.metrics.PhaseLatencies;
+import service.transfer.metrics.PhaseLatency;
+import service.transfer.metrics.TimedPhase;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Reads the counters of a scan and its transfer, so they can be watched over JMX and summed up at the end
+public class TransferMetrics implements TransferMetricsMXBean {
+
+    public final static String OBJECT_NAME = "FileTransferUtility:type=TransferMetrics";
+
+    private final PathProcessResult result;
+    private final TransferProcessResult transferResult;
+
+    public TransferMetrics(PathProcessResult result, TransferProcessResult transferResult) {
+        this.result = result;
+        this.transferResult = transferResult;
+    }
+
+    // Replaces the metrics of the previous transfer, they stay readable until the next one starts
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            // The transfer doesn't need JMX to run
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        return transferResult.isDone();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - transferResult.getStartNanos());
+    }
+
+    @Override
+    public long getScannedFolderCount() {
+        return result.getFolderCount();
+    }
+
+    @Override
+    public long getScannedFileCount() {
+        return result.getFileCount();
+    }
+
+    @Override
+    public long getScannedBytes() {
+        return result.getByteCount();
+    }
+
+    @Override
+    public long getUnchangedFolderCount() {
+        return result.getUnchangedFolderCount();
+    }
+
+    @Override
+    public long getExcludedFolderCount() {
+        return result.getExcludedFolderCount();
+    }
+
+    @Override
+    public long getExcludedFileCount() {
+        return result.getExcludedFileCount();
+    }
+
+    @Override
+    public long getExcludedBytes() {
+        return result.getExcludedByteCount();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return result.getQueueSize();
+    }
+
+    @Override
+    public long getCopiedFileCount() {
+        return transferResult.getFileCount();
+    }
+
+    @Override
+    public long getCopiedBytes() {
+        return transferResult.getWrittenByteCount();
+    }
+
+    @Override
+    public long getReadBytes() {
+        return transferResult.getReadByteCount();
+    }
+
+    @Override
+    public long getSkippedFileCount() {
+        return transferResult.getSkippedFileCount();
+    }
+
+    @Override
+    public long getSkippedBytes() {
+        return transferResult.getSkippedByteCount();
+    }
+
+    @Override
+    public long getLinkedFileCount() {
+        return transferResult.getLinkedFileCount();
+    }
+
+    @Override
+    public long getSavedBytes() {
+        return transferResult.getSavedByteCount();
+    }
+
+    @Override
+    public long getVerifiedFileCount() {
+        return transferResult.getContentCompareCount();
+    }
+
+    @Override
+    public long getVerifiedBytes() {
+        return transferResult.getContentCompareByteCount();
+    }
+
+    @Override
+    public List<PhaseLatency> getLatencies() {
+        PhaseLatencies latencies = transferResult.getLatencies();
+        List<PhaseLatency> phaseLatencies = Lists.newArrayList();
+        for (TimedPhase phase : TimedPhase.values()) {
+            phaseLatencies.add(PhaseLatency.of(phase, latencies.get(phase)));
+        }
+        return phaseLatencies;
+    }
+
+    @Override
+    public String getSummary() {
+        long elapsedMillis = Math.max(getElapsedMillis(), 1);
+        StringBuilder summary = new StringBuilder(String.format("Transfer summary after %.1f s:", elapsedMillis / 1000.0));
+        summary.append(String.format("%n\tScanned: %s folders, %s files, %s bytes, %s folders unchanged",
+                getScannedFolderCount(), getScannedFileCount(), getScannedBytes(), getUnchangedFolderCount()));
+        summary.append(String.format("%n\tExcluded: %s folders, %s files, %s bytes",
+                getExcludedFolderCount(), getExcludedFileCount(), getExcludedBytes()));
+        summary.append(String.format("%n\tCopied: %s files, %s bytes written, %s bytes read, %.1f MB/s",
+                getCopiedFileCount(), getCopiedBytes(), getReadBytes(), getCopiedBytes() / 1024.0 / 1024.0 / (elapsedMillis / 1000.0)));
+        summary.append(String.format("%n\tSkipped: %s files, %s bytes", getSkippedFileCount(), getSkippedBytes()));
+        summary.append(String.format("%n\tLinked: %s files, %s bytes saved", getLinkedFileCount(), getSavedBytes()));
+        summary.append(String.format("%n\tVerified: %s files, %s bytes", getVerifiedFileCount(), getVerifiedBytes()));
+        for (PhaseLatency latency : getLatencies()) {
+            summary.append(String.format("%n\t%s", latency));
+        }
+        return summary.toString();
+    }
+}
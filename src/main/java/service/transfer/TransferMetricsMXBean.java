@@ -0,0 +1,51 @@
+package service.transfer;
+
+import service.transfer.metrics.PhaseLatency;
+
+import java.util.List;
+
+// The counters and latencies of the current or last transfer, as seen over JMX
+public interface TransferMetricsMXBean {
+
+    boolean isDone();
+
+    long getElapsedMillis();
+
+    long getScannedFolderCount();
+
+    long getScannedFileCount();
+
+    long getScannedBytes();
+
+    long getUnchangedFolderCount();
+
+    long getExcludedFolderCount();
+
+    long getExcludedFileCount();
+
+    long getExcludedBytes();
+
+    int getQueueSize();
+
+    long getCopiedFileCount();
+
+    long getCopiedBytes();
+
+    long getReadBytes();
+
+    long getSkippedFileCount();
+
+    long getSkippedBytes();
+
+    long getLinkedFileCount();
+
+    long getSavedBytes();
+
+    long getVerifiedFileCount();
+
+    long getVerifiedBytes();
+
+    List<PhaseLatency> getLatencies();
+
+    String getSummary();
+}
@@ -1,14 +1,43 @@
 package service.transfer;
 
+import service.transfer.copy.CopyProgress;
+import service.transfer.metrics.PhaseLatencies;
+import service.transfer.metrics.TimedPhase;
+
 import java.io.File;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-public class TransferProcessResult {
+public class TransferProcessResult implements CopyProgress {
 
     private final AtomicBoolean isDone = new AtomicBoolean(false);
-    private final AtomicInteger folderCount = new AtomicInteger();
-    private final AtomicInteger fileCount = new AtomicInteger();
+    // Striped counters, every transfer thread updates them for every file and every chunk
+    private final LongAdder folderCount = new LongAdder();
+    private final LongAdder fileCount = new LongAdder();
+    private final LongAdder readByteCount = new LongAdder();
+    private final LongAdder writtenByteCount = new LongAdder();
+    private final LongAdder skippedByMetadataCount = new LongAdder();
+    private final LongAdder skippedByContentCount = new LongAdder();
+    private final LongAdder contentCompareCount = new LongAdder();
+    private final LongAdder skippedByJournalCount = new LongAdder();
+    private final LongAdder resumedFileCount = new LongAdder();
+    private final LongAdder contentCompareByteCount = new LongAdder();
+    // Files that got a hard link to a copy of the same content instead of a copy of their own
+    private final LongAdder linkedFileCount = new LongAdder();
+    private final LongAdder savedByteCount = new LongAdder();
+    private final AtomicInteger runningWorkerCount = new AtomicInteger();
+    // Every source file handed to the transfer threads so far, copied or skipped
+    private final LongAdder processedFileCount = new LongAdder();
+    private final LongAdder processedByteCount = new LongAdder();
+    private final LongAdder skippedFileCount = new LongAdder();
+    private final LongAdder skippedByteCount = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private final PhaseLatencies latencies;
+
+    public TransferProcessResult(PhaseLatencies latencies) {
+        this.latencies = latencies;
+    }
 
     public boolean isDone() {
         return isDone.get();
@@ -18,23 +47,152 @@ public class TransferProcessResult {
         isDone.set(true);
     }
 
-    public AtomicInteger getFolderCount() {
-        return folderCount;
+    public PhaseLatencies getLatencies() {
+        return latencies;
+    }
+
+    public long getFolderCount() {
+        return folderCount.sum();
     }
 
     public void incrementFolderCount() {
-        folderCount.incrementAndGet();
+        folderCount.increment();
     }
 
-    public AtomicInteger getFileCount() {
-        return fileCount;
+    public long getFileCount() {
+        return fileCount.sum();
     }
 
     public void incrementFileCount() {
-        fileCount.incrementAndGet();
+        fileCount.increment();
+    }
+
+    public long getReadByteCount() {
+        return readByteCount.sum();
+    }
+
+    @Override
+    public void addBytesRead(long bytes) {
+        readByteCount.add(bytes);
+    }
+
+    public long getWrittenByteCount() {
+        return writtenByteCount.sum();
+    }
+
+    @Override
+    public void addBytesWritten(long bytes) {
+        writtenByteCount.add(bytes);
+    }
+
+    @Override
+    public void addFsyncTime(long nanos) {
+        latencies.get(TimedPhase.FSYNC).record(nanos);
+    }
+
+    public long getSkippedByMetadataCount() {
+        return skippedByMetadataCount.sum();
+    }
+
+    public void incrementSkippedByMetadataCount() {
+        skippedByMetadataCount.increment();
+    }
+
+    public long getSkippedByContentCount() {
+        return skippedByContentCount.sum();
+    }
+
+    public void incrementSkippedByContentCount() {
+        skippedByContentCount.increment();
+    }
+
+    public long getSkippedByJournalCount() {
+        return skippedByJournalCount.sum();
+    }
+
+    public void incrementSkippedByJournalCount() {
+        skippedByJournalCount.increment();
+    }
+
+    public long getResumedFileCount() {
+        return resumedFileCount.sum();
+    }
+
+    public void incrementResumedFileCount() {
+        resumedFileCount.increment();
+    }
+
+    public long getContentCompareCount() {
+        return contentCompareCount.sum();
+    }
+
+    public long getContentCompareByteCount() {
+        return contentCompareByteCount.sum();
+    }
+
+    public void addContentCompare(long fileSize) {
+        contentCompareCount.increment();
+        contentCompareByteCount.add(fileSize);
+    }
+
+    public long getLinkedFileCount() {
+        return linkedFileCount.sum();
+    }
+
+    public long getSavedByteCount() {
+        return savedByteCount.sum();
+    }
+
+    // A file that was linked to an earlier copy of the same content
+    public void addLinkedFile(long fileSize) {
+        addProcessedFile(fileSize);
+        linkedFileCount.increment();
+        savedByteCount.add(fileSize);
+    }
+
+    public long getProcessedFileCount() {
+        return processedFileCount.sum();
+    }
+
+    public long getProcessedByteCount() {
+        return processedByteCount.sum();
+    }
+
+    // A file that was copied
+    public void addProcessedFile(long fileSize) {
+        processedFileCount.increment();
+        processedByteCount.add(fileSize);
+    }
+
+    public long getSkippedFileCount() {
+        return skippedFileCount.sum();
+    }
+
+    public long getSkippedByteCount() {
+        return skippedByteCount.sum();
+    }
+
+    // A file that didn't need to be copied
+    public void addSkippedFile(long fileSize) {
+        addProcessedFile(fileSize);
+        skippedFileCount.increment();
+        skippedByteCount.add(fileSize);
+    }
+
+    public long getStartNanos() {
+        return startNanos;
     }
 
     public void addFolder(File folder, int folderHashcode) {
         //TODO: save these folders for the transfer thread
     }
+
+    public void setWorkerCount(int workerCount) {
+        runningWorkerCount.set(workerCount);
+    }
+
+    // Returns true for the last worker to finish
+    public boolean finishWorker() {
+        return runningWorkerCount.decrementAndGet() == 0;
+    }
 }
@@ -1,172 +1,604 @@
 package service.transfer;
 
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+
+import service.log.Log;
+import service.transfer.bundle.Bundle;
+import service.transfer.bundle.BundleWriter;
+import service.transfer.copy.CopyAttributes;
+import service.transfer.copy.CopyProgress;
+import service.transfer.copy.CopyTarget;
+import service.transfer.copy.ICopyEngine;
+import service.transfer.metrics.PhaseLatencies;
+import service.transfer.metrics.TimedPhase;
+import service.transfer.throttle.AdaptiveConcurrency;
+import service.transfer.throttle.TransferThrottle;
+
 import java.io.*;
 import java.nio.file.*;
-import java.util.Properties;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TransferProcessThread extends AbstractServiceThread {
 
+    private static final String LINK_FILE_SUFFIX = ".filetransfer.link";
+
+    // Which of the workers this is, the scheduler may keep folders aside for it
+    private final int workerIndex;
     private final File sourceFolderPath;
-    private final File destinationFolderPath;
+    private final TransferDestination destination;
     private final PathProcessResult result;
     private final TransferProcessResult transferResult;
+    private final DeviceConcurrencyLimiter deviceLimiter;
+    private final ICopyEngine copyEngine;
+    private final FileComparator fileComparator;
+    private final boolean removeLegacyHashcodeFiles;
+    private final PhaseLatencies latencies;
+    private final TransferThrottle throttle;
+    // Decides how many threads copy at once, null to let them all
+    private final AdaptiveConcurrency concurrency;
+    // Copies every file on its own virtual thread, null to copy them one after another on this thread
+    private final VirtualTaskExecutor taskExecutor;
+    // This thread's segment in the bundle, opened with the first file that goes in
+    private BundleWriter bundleWriter;
 
-    public TransferProcessThread(File sourceFolderPath, File destinationFolderPath, PathProcessResult result, TransferProcessResult transferResult, AtomicBoolean cancel) {
-        super("transfer-thread", cancel);
+    public TransferProcessThread(String threadName, int workerIndex, File sourceFolderPath, TransferDestination destination,
+                                 PathProcessResult result, TransferProcessResult transferResult, DeviceConcurrencyLimiter deviceLimiter,
+                                 ICopyEngine copyEngine, FileComparator fileComparator, boolean removeLegacyHashcodeFiles,
+                                 TransferThrottle throttle, AdaptiveConcurrency concurrency, VirtualTaskExecutor taskExecutor,
+                                 AtomicBoolean cancel) {
+        super(threadName, cancel);
+        this.workerIndex = workerIndex;
         this.sourceFolderPath = sourceFolderPath;
-        this.destinationFolderPath = destinationFolderPath;
+        this.destination = destination;
         this.result = result;
         this.transferResult = transferResult;
+        this.deviceLimiter = deviceLimiter;
+        this.copyEngine = copyEngine;
+        this.fileComparator = fileComparator;
+        this.removeLegacyHashcodeFiles = removeLegacyHashcodeFiles;
+        this.latencies = transferResult.getLatencies();
+        this.throttle = throttle;
+        this.concurrency = concurrency;
+        this.taskExecutor = taskExecutor;
     }
 
     public void run(){
-        logMsg("Started transfer-thread", true);
+        Log.debug("Started %s", getName());
 
         while (!cancel.get()) {
-            // Get a folder that has been processed
-            FolderAndHashcode sourceFolder = result.nextFolder();
+            // Wait for a folder that has been processed
+            FolderAndHashcode sourceFolder = result.nextFolder(workerIndex);
 
             // Check if there are anymore folders
             if (sourceFolder == null) {
-                if(result.isDone()) {
-                    break;
-                }
-                // Nothing to process yet
-                continue;
+                break;
             }
 
             // Find the corresponding destination folder
-            File destinationFolder = getDestinationFolder(sourceFolderPath, destinationFolderPath, sourceFolder.getFolder());
+            String relativePath = TransferDestination.getRelativePath(sourceFolderPath, sourceFolder.getFolder());
+            File destinationFolder = destination.getFolder(relativePath);
 
             // Transfer the files
             try {
-                transferFolder(sourceFolder, destinationFolder, transferResult, cancel);
+                transferFolder(sourceFolder, relativePath, destinationFolder, transferResult, cancel);
             } catch (IOException e) {
-                logMsg("Exception while transferring to: " + destinationFolder, false);
+                Log.info("Exception while transferring to: %s", destinationFolder);
                 e.printStackTrace();
             }
         }
 
-        transferResult.setDone();
-        logMsg("Finished transfer-thread", true);
+        // The segment has to be finished before the manifest says its folders are done
+        closeBundleWriter();
+
+        // The last worker out saves the manifest and marks the transfer as done
+        if(transferResult.finishWorker()) {
+            boolean isManifestSaved = saveManifest();
+            boolean isLinksSaved = saveLinks();
+            closeJournal(isManifestSaved && isLinksSaved && !cancel.get());
+            copyEngine.close();
+            fileComparator.close();
+            if(taskExecutor != null) {
+                taskExecutor.shutdown();
+            }
+            if(concurrency != null) {
+                concurrency.stop();
+            }
+            Log.info(new TransferMetrics(result, transferResult).getSummary());
+            transferResult.setDone();
+        }
+        Log.debug("Finished %s", getName());
     }
 
-    private File getDestinationFolder(File rootSourceFolder, File rootDestinationFolderPath, File sourceFolder) {
-        // Get source folder path minus the root source folder
-        String sourceFolderRelativePath = sourceFolder.toString().replace(rootSourceFolder.getParent(), "");
-        File destinationFolder = new File(rootDestinationFolderPath, sourceFolderRelativePath);
+    private void createDestinationFolder(String relativePath, File destinationFolder) throws IOException {
+        DestinationIndex index = destination.getIndex();
+        if(index != null) {
+            // Only the folders the index doesn't have are created, one call each
+            int createdCount = index.createFolders(destinationFolder.toPath());
+            for (int i = 0; i < createdCount; i++) {
+                transferResult.incrementFolderCount();
+            }
+            if(createdCount > 0) {
+                Log.debug("Created destination folder: %s", destinationFolder);
+            }
+            return;
+        }
 
         // Create the folder and its parents if needed
         if(destinationFolder.mkdirs()) {
             transferResult.incrementFolderCount();
-            logMsg("Created destination folder: " + destinationFolder, true);
+            Log.debug("Created destination folder: %s", destinationFolder);
+            destination.getManifest().removeDeletedFolder(relativePath);
         }
-
-        return destinationFolder;
     }
 
-    private void transferFolder(FolderAndHashcode sourceFolder, File destinationFolder, TransferProcessResult transferResult, AtomicBoolean cancel) throws IOException {
-        logMsg(String.format("Transferring data %n\tFrom: %s%n\tTo: %s", sourceFolder.getFolder(), destinationFolder), true);
+    private void transferFolder(FolderAndHashcode sourceFolder, String relativePath, File destinationFolder,
+                                TransferProcessResult transferResult, AtomicBoolean cancel) throws IOException {
+        Log.debug("Transferring data %n\tFrom: %s%n\tTo: %s", sourceFolder.getFolder(), destinationFolder);
 
-        // Check the hashcode
+        // Check the fingerprint
         boolean transferFiles;
-        File hashcodeFile = getHashcodeFile(destinationFolder);
-        if(!hashcodeFile.exists()) {
+        DestinationManifest manifest = destination.getManifest();
+        HashCode destinationFingerprint = manifest.getFingerprint(relativePath);
+        if(destinationFingerprint == null) {
             transferFiles = true;
-            logMsg("Hashcode file missing", true);
+            Log.debug("Fingerprint not found");
+            if(destination.getBundle() == null && removeLegacyHashcodeFiles && hasLegacyHashcodeFile(destinationFolder)) {
+                removeLegacyHashcodeFile(destinationFolder);
+            }
         } else {
-            Integer destinationHash = readHashcode(hashcodeFile);
-            if(destinationHash == null) {
-                transferFiles = true;
-                logMsg("Hashcode not found", true);
+            if(destinationFingerprint.equals(sourceFolder.getFolderHashcode())) {
+                transferFiles = false;
+                Log.debug("Fingerprint is equal");
             } else {
-                if(destinationHash.equals(sourceFolder.getFolderHashcode())) {
-                    transferFiles = false;
-                    logMsg("Hashcode is equal", true);
-                } else {
-                    transferFiles = true;
-                    logMsg("Hashcode not equal", true);
-                }
+                transferFiles = true;
+                Log.debug("Fingerprint not equal");
             }
         }
 
         // Transfer the files
         if(transferFiles) {
-            transferFiles(sourceFolder.getFolder(), destinationFolder, transferResult, cancel);
+            boolean isComplete;
+            if(destination.getBundle() != null) {
+                isComplete = bundleFiles(sourceFolder, relativePath);
+            } else {
+                createDestinationFolder(relativePath, destinationFolder);
+                isComplete = transferFiles(sourceFolder, relativePath, destinationFolder, transferResult, cancel);
+            }
 
-            // Write the Hashcode
-            logMsg("Wrote hashcode property file to folder: " + destinationFolder, true);
-            saveHashcode(hashcodeFile, sourceFolder.getFolderHashcode());
+            // Only remember the fingerprint if every file made it
+            if(isComplete && bundleWriter != null) {
+                // Only once the segment holding its files is finished
+                bundleWriter.addFolder(relativePath, sourceFolder.getFolderHashcode());
+                putBundledFolders();
+            } else if(isComplete) {
+                manifest.putFingerprint(relativePath, sourceFolder.getFolderHashcode());
+                if(destination.getJournal() != null) {
+                    destination.getJournal().recordFolderDone(relativePath, sourceFolder.getFolderHashcode());
+                }
+            }
+        } else {
+            // Nothing to do for these files, they still count towards the progress
+            for (FileEntry file : sourceFolder.getFiles()) {
+                transferResult.addSkippedFile(file.getSize());
+            }
         }
     }
 
-    private File getHashcodeFile(File destinationFolder) {
-        return new File(destinationFolder.getPath(), TransferService.HASHCODE_FILE_NAME);
+    // Without an index it's up to the delete to find out
+    private boolean hasLegacyHashcodeFile(File destinationFolder) {
+        DestinationIndex index = destination.getIndex();
+        return index == null || index.getAttributes(destinationFolder.toPath(), TransferService.HASHCODE_FILE_NAME) != null;
     }
 
-    private Integer readHashcode(File hashcodeFile) {
+    private void removeLegacyHashcodeFile(File destinationFolder) {
         try {
-            Properties prop = new Properties();
-            FileReader reader = new FileReader(hashcodeFile);
-            prop.load(reader);
-            reader.close();
-            String hashcode = prop.getProperty(TransferService.HASHCODE_FILE_PROP_HASH);
-            if(hashcode == null){
-                logMsg(String.format("No hashcode property '%s' in file: %s", TransferService.HASHCODE_FILE_PROP_HASH,  hashcodeFile), true);
-                return null;
-            }
-            return Integer.valueOf(hashcode);
+            if(DestinationManifest.removeLegacyHashcodeFile(destinationFolder)) {
+                Log.debug("Removed old hashcode property file from folder: %s", destinationFolder);
+            }
         } catch (IOException e) {
-            logMsg(String.format("Exception while reading hashcode property '%s' in file: %s", TransferService.HASHCODE_FILE_PROP_HASH,  hashcodeFile), false);
+            Log.info("Exception while removing old hashcode property file from folder: %s", destinationFolder);
             e.printStackTrace();
-            return null;
         }
     }
 
-    private void transferFiles(File sourceFolder, File destinationFolder, TransferProcessResult transferResult, AtomicBoolean cancel) throws IOException {
-        File[] fileArray = sourceFolder.listFiles();
-        if(fileArray == null){
-            logMsg("The given file needs to be a folder: " + sourceFolder, false);
+    private boolean saveManifest() {
+        DestinationManifest manifest = destination.getManifest();
+        try {
+            if(manifest.flush()) {
+                Log.debug("Wrote manifest with %s folders to: %s", manifest.size(), manifest.getManifestFile());
+            }
+            return true;
+        } catch (IOException e) {
+            Log.info("Exception while writing manifest: %s", manifest.getManifestFile());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private boolean saveLinks() {
+        DedupIndex dedupIndex = result.getDedupIndex();
+        if(dedupIndex == null) {
+            return true;
+        }
+        try {
+            if(dedupIndex.flush()) {
+                Log.debug("Wrote %s linked files to: %s", dedupIndex.getLinkCount(), dedupIndex.getLinksFile());
+            }
+            return true;
+        } catch (IOException e) {
+            Log.info("Exception while writing linked files: %s", dedupIndex.getLinksFile());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void closeBundleWriter() {
+        if(bundleWriter == null) {
             return;
         }
+        try {
+            bundleWriter.close();
+        } catch (IOException e) {
+            Log.info("Exception while finishing the bundle segment of %s", getName());
+            e.printStackTrace();
+        }
+        putBundledFolders();
+    }
 
-        // Loop through all the source files and copy them over to the destination folder
-        for(File file : fileArray) {
-            if(cancel.get()) {
-                logMsg("Cancelled process", false);
-                break;
+    // The segment that failed is left out the next time, the manifest mustn't say its folders are done
+    private void putBundledFolders() {
+        DestinationManifest manifest = destination.getManifest();
+        bundleWriter.takeFinishedFolders().forEach(manifest::putFingerprint);
+        for (String relativePath : bundleWriter.takeFailedFolders()) {
+            Log.info("Bundle segment failed, the folder is copied again next time: %s", relativePath);
+            manifest.removeFingerprint(relativePath);
+        }
+    }
+
+    // The journal is only needed again if this transfer didn't get to the end
+    private void closeJournal(boolean isFinished) {
+        TransferJournal journal = destination.getJournal();
+        if(journal == null) {
+            return;
+        }
+        try {
+            if(isFinished) {
+                journal.delete();
+            } else {
+                journal.close();
+                Log.debug("Kept the journal so the next transfer can resume");
             }
-            if(file.isDirectory()){
-                // Skip subfolders, they have already been copied (or will be soon)
-                continue;
+        } catch (IOException e) {
+            Log.info("Exception while closing the journal");
+            e.printStackTrace();
+        }
+    }
+
+    // Returns false if it was cancelled before all the files were transferred
+    private boolean transferFiles(FolderAndHashcode sourceFolder, String relativePath, File destinationFolder,
+                                  TransferProcessResult transferResult, AtomicBoolean cancel) throws IOException {
+        Semaphore deviceSemaphore = deviceLimiter.getSemaphore(destinationFolder.toPath());
+        if(taskExecutor != null) {
+            return startFiles(sourceFolder, relativePath, destinationFolder, deviceSemaphore);
+        }
+
+        // Loop through the source files found by the scan and copy them over to the destination folder
+        for(FileEntry file : sourceFolder.getFiles()) {
+            if(cancel.get() || !transferFile(file, relativePath, destinationFolder, deviceSemaphore)) {
+                Log.info("Cancelled process");
+                return false;
             }
-            File sourceFile = new File(sourceFolder, file.getName());
-            Path sourcePath = sourceFile.toPath();
-            File destinationFile = new File(destinationFolder, file.getName());
-            Path destinationPath = destinationFile.toPath();
-            if(destinationFile.exists() && Files.mismatch(sourcePath, destinationPath) == -1L){
-                // Files are equal, skip
-                logMsg("Skipping equal file: " + sourcePath, true);
+        }
+        return true;
+    }
+
+    // The files go one after another into this thread's segment of the bundle, instead of a file each.
+    // Returns false if it was cancelled before all the files were in.
+    private boolean bundleFiles(FolderAndHashcode sourceFolder, String relativePath) throws IOException {
+        Bundle bundle = destination.getBundle();
+        for(FileEntry file : sourceFolder.getFiles()) {
+            if(cancel.get() || !throttle.acquireFile(cancel)) {
+                Log.info("Cancelled process");
+                return false;
+            }
+            String relativeFilePath = relativePath + "/" + file.getName();
+            if(bundle.isUnchanged(relativeFilePath, file)) {
+                Log.debug("Skipping file already in the bundle: %s", file.getPath());
+                transferResult.addSkippedFile(file.getSize());
                 continue;
             }
-            logMsg(String.format("Transferring file %n\tFrom: %s%n\tTo: %s", sourcePath, destinationPath), true);
-            Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            if(bundleWriter == null) {
+                bundleWriter = bundle.newWriter();
+            }
+            Log.debug("Bundling file: %s", file.getPath());
+            boolean isAppended;
+            long copyStart = System.nanoTime();
+            try {
+                isAppended = bundleWriter.append(relativeFilePath, file, throttle.throttle(transferResult, cancel), cancel);
+            } finally {
+                latencies.recordSince(TimedPhase.COPY, copyStart);
+            }
+            if(!isAppended) {
+                Log.info("Cancelled process");
+                return false;
+            }
             transferResult.incrementFileCount();
+            transferResult.addProcessedFile(file.getSize());
+        }
+        return true;
+    }
+
+    // Every file gets its own virtual thread, as many at once as the source and destination devices allow
+    private boolean startFiles(FolderAndHashcode sourceFolder, String relativePath, File destinationFolder,
+                               Semaphore deviceSemaphore) throws IOException {
+        Path sourceFolderPath = sourceFolder.getFolder().toPath();
+        Path destinationFolderPath = destinationFolder.toPath();
+        List<Future<Boolean>> fileTasks = Lists.newArrayListWithCapacity(sourceFolder.getFiles().size());
+        boolean isComplete = true;
+        for(FileEntry file : sourceFolder.getFiles()) {
+            Semaphore sourceSemaphore = taskExecutor.acquireSource(sourceFolderPath, cancel);
+            if(sourceSemaphore == null) {
+                isComplete = false;
+                break;
+            }
+            Semaphore destinationSemaphore = taskExecutor.acquireDestination(destinationFolderPath, cancel);
+            if(destinationSemaphore == null) {
+                taskExecutor.release(sourceSemaphore);
+                isComplete = false;
+                break;
+            }
+            fileTasks.add(taskExecutor.submit(() -> {
+                try {
+                    return !cancel.get() && transferFile(file, relativePath, destinationFolder, deviceSemaphore);
+                } finally {
+                    taskExecutor.release(destinationSemaphore);
+                    taskExecutor.release(sourceSemaphore);
+                }
+            }));
+        }
+
+        // Wait for all of them, even after a failure, so nothing is still writing to the folder afterwards
+        IOException failure = null;
+        for (Future<Boolean> fileTask : fileTasks) {
+            try {
+                isComplete &= fileTask.get();
+            } catch (ExecutionException e) {
+                isComplete = false;
+                if(failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                isComplete = false;
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+        if(!isComplete) {
+            Log.info("Cancelled process");
         }
+        return isComplete;
     }
 
-    private void saveHashcode(File hashcodeFile, int folderHashcode) {
+    // Returns false if it was cancelled before the file was transferred
+    private boolean transferFile(FileEntry file, String relativePath, File destinationFolder, Semaphore deviceSemaphore) throws IOException {
+        if(!throttle.acquireFile(cancel)) {
+            return false;
+        }
+        if(concurrency == null) {
+            return transferFileNow(file, relativePath, destinationFolder, deviceSemaphore);
+        }
+        // Wait for this thread's turn, the controller decides how many copy at once
+        if(!concurrency.acquire(cancel)) {
+            return false;
+        }
         try {
-            Properties prop = new Properties();
-            prop.setProperty(TransferService.HASHCODE_FILE_PROP_HASH, String.valueOf(folderHashcode));
-            FileWriter writer = new FileWriter(hashcodeFile,false);
-            prop.store(writer, "File Transfer Utility Property File");
-            writer.flush();
-            writer.close();
-        } catch (IOException e) {
-            logMsg(String.format("Exception while writing hashcode property '%s' in file: %s", TransferService.HASHCODE_FILE_PROP_HASH,  hashcodeFile), false);
-            e.printStackTrace();
+            return transferFileNow(file, relativePath, destinationFolder, deviceSemaphore);
+        } finally {
+            concurrency.release();
+        }
+    }
+
+    private boolean transferFileNow(FileEntry file, String relativePath, File destinationFolder, Semaphore deviceSemaphore)
+            throws IOException {
+        TransferJournal journal = destination.getJournal();
+        Path sourcePath = file.getPath();
+        String relativeFilePath = relativePath + "/" + file.getName();
+        Path destinationPath = new File(destinationFolder, file.getName()).toPath();
+        long statStart = System.nanoTime();
+        BasicFileAttributes destinationAttributes = readAttributes(destinationFolder, file.getName(), destinationPath);
+        latencies.recordSince(TimedPhase.STAT, statStart);
+        if(journal != null && journal.isFileDone(relativeFilePath, file, destinationAttributes)) {
+            // An earlier transfer that didn't finish already copied it
+            Log.debug("Skipping file copied by an earlier transfer: %s", sourcePath);
+            transferResult.incrementSkippedByJournalCount();
+            transferResult.addSkippedFile(file.getSize());
+            return true;
+        }
+        DedupIndex dedupIndex = result.getDedupIndex();
+        if(dedupIndex != null && destinationAttributes != null && dedupIndex.isLinked(relativeFilePath, file, destinationAttributes)) {
+            // Has the modified time of the copy it's linked to, the default compare would always find it changed
+            Log.debug("Skipping file linked by an earlier transfer: %s", sourcePath);
+            transferResult.addSkippedFile(file.getSize());
+            return true;
+        }
+        if(destinationAttributes != null && isEqual(file, relativeFilePath, destinationPath, destinationAttributes)){
+            // Files are equal, skip
+            Log.debug("Skipping equal file: %s", sourcePath);
+            if(dedupIndex != null) {
+                // The files of its size that did change can be linked to it
+                dedupIndex.addCopy(file, null, destinationPath);
+            }
+            transferResult.addSkippedFile(file.getSize());
+            return true;
+        }
+        HashCode contentHash = null;
+        if(dedupIndex != null && dedupIndex.isCandidate(file)) {
+            contentHash = hashContent(file);
+            if(linkToCopy(file, contentHash, destinationPath)) {
+                dedupIndex.addLink(relativeFilePath, file, destinationPath);
+                if(journal != null) {
+                    journal.recordFileDone(relativeFilePath, file, destinationPath);
+                }
+                transferResult.addLinkedFile(file.getSize());
+                return true;
+            }
+        }
+        if(destinationAttributes != null && CopyTarget.isHardLinked(destinationPath)) {
+            // The copy is written in place, that would change every other name of the file too
+            Log.debug("Replacing hard linked file: %s", destinationPath);
+            Files.delete(destinationPath);
+            destinationAttributes = null;
+        }
+        Log.debug("Transferring file %n\tFrom: %s%n\tTo: %s", sourcePath, destinationPath);
+        if(!DeviceConcurrencyLimiter.acquire(deviceSemaphore, cancel)) {
+            return false;
+        }
+        boolean isCopied;
+        long copyStart = System.nanoTime();
+        try {
+            isCopied = copyFile(file, relativeFilePath, destinationPath, destinationAttributes, journal);
+        } finally {
+            DeviceConcurrencyLimiter.release(deviceSemaphore);
+            latencies.recordSince(TimedPhase.COPY, copyStart);
+        }
+        if(!isCopied) {
+            return false;
+        }
+        if(journal != null) {
+            journal.recordFileDone(relativeFilePath, file, destinationPath);
+        }
+        if(dedupIndex != null) {
+            dedupIndex.removeLink(relativeFilePath);
+            dedupIndex.addCopy(file, contentHash, destinationPath);
+        }
+        transferResult.incrementFileCount();
+        transferResult.addProcessedFile(file.getSize());
+        return true;
+    }
+
+    private HashCode hashContent(FileEntry file) throws IOException {
+        long hashStart = System.nanoTime();
+        try {
+            return DedupIndex.hash(file.getPath());
+        } finally {
+            latencies.recordSince(TimedPhase.COMPARE, hashStart);
+        }
+    }
+
+    // Links the file to a copy of the same content made earlier in this transfer. Returns false if there is none,
+    // or the destination can't do hard links, the file is copied then.
+    private boolean linkToCopy(FileEntry file, HashCode contentHash, Path destinationPath) throws IOException {
+        Path copy = result.getDedupIndex().findCopy(file.getSize(), contentHash);
+        if(copy == null || copy.equals(destinationPath)) {
+            return false;
+        }
+        if(Files.exists(destinationPath, LinkOption.NOFOLLOW_LINKS) && Files.isSameFile(copy, destinationPath)) {
+            Log.debug("Already linked to the file with the same content %n\tFrom: %s%n\tTo: %s", copy, destinationPath);
+            return true;
+        }
+        // Linked next to it and moved over it, so a file that was there already stays until the link is in place
+        Path linkPath = destinationPath.resolveSibling(destinationPath.getFileName() + LINK_FILE_SUFFIX);
+        try {
+            Files.deleteIfExists(linkPath);
+            Files.createLink(linkPath, copy);
+            Files.move(linkPath, destinationPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Log.debug("Linked file with the same content %n\tFrom: %s%n\tTo: %s", copy, destinationPath);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            Log.info("Couldn't link %s to %s, copying it instead", destinationPath, copy);
+            Files.deleteIfExists(linkPath);
+            return false;
+        }
+    }
+
+    private boolean isEqual(FileEntry file, String relativeFilePath, Path destinationPath, BasicFileAttributes destinationAttributes)
+            throws IOException {
+        long compareStart = System.nanoTime();
+        try {
+            FileComparison comparison = fileComparator.compare(file, destinationPath, destinationAttributes, transferResult);
+            if(comparison == FileComparison.EQUAL_EXCEPT_MODIFIED_TIME) {
+                if(!CopyTarget.isHardLinked(destinationPath)) {
+                    CopyAttributes.applyModifiedTime(file, destinationPath);
+                } else if(result.getDedupIndex() != null) {
+                    // Setting it would change the other names too, the link is remembered instead
+                    result.getDedupIndex().addLink(relativeFilePath, file, destinationPath);
+                }
+            }
+            return comparison.isEqual();
+        } finally {
+            latencies.recordSince(TimedPhase.COMPARE, compareStart);
+        }
+    }
+
+    private boolean copyFile(FileEntry file, String relativeFilePath, Path destinationPath, BasicFileAttributes destinationAttributes,
+                             TransferJournal journal) throws IOException {
+        if(journal == null || file.getSize() < journal.getCheckpointSize()) {
+            return copyEngine.copy(file, destinationPath, destinationAttributes, throttle.throttle(transferResult, cancel), cancel);
+        }
+
+        // Large files record how far they got, so they can carry on from there
+        CopyProgress progress = throttle.throttle(new JournalCopyProgress(journal, relativeFilePath, file), cancel);
+        long offset = destinationAttributes == null ? 0 : journal.getResumeOffset(relativeFilePath, file, destinationAttributes.size());
+        if(offset > 0) {
+            Log.debug("Resuming file at %s bytes: %s", offset, destinationPath);
+            transferResult.incrementResumedFileCount();
+            return copyEngine.resume(file, destinationPath, destinationAttributes, offset, progress, cancel);
+        }
+        return copyEngine.copy(file, destinationPath, destinationAttributes, progress, cancel);
+    }
+
+    private BasicFileAttributes readAttributes(File destinationFolder, String name, Path path) throws IOException {
+        DestinationIndex index = destination.getIndex();
+        if(index != null) {
+            return index.getAttributes(destinationFolder.toPath(), name);
+        }
+        return readAttributes(path);
+    }
+
+    private BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private class JournalCopyProgress implements CopyProgress {
+        private final TransferJournal journal;
+        private final String relativeFilePath;
+        private final FileEntry file;
+        JournalCopyProgress(TransferJournal journal, String relativeFilePath, FileEntry file){
+            this.journal = journal;
+            this.relativeFilePath = relativeFilePath;
+            this.file = file;
+        }
+        @Override
+        public void addBytesRead(long bytes) {
+            transferResult.addBytesRead(bytes);
+        }
+        @Override
+        public void addBytesWritten(long bytes) {
+            transferResult.addBytesWritten(bytes);
+        }
+        @Override
+        public void addFsyncTime(long nanos) {
+            transferResult.addFsyncTime(nanos);
+        }
+        @Override
+        public long getCheckpointSize() {
+            return journal.getCheckpointSize();
+        }
+        @Override
+        public void checkpoint(long position) {
+            journal.recordFileProgress(relativeFilePath, file, position);
         }
     }
 }
@@ -1,29 +1,112 @@
 package service.transfer;
 
 import com.google.common.collect.Lists;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import service.ITransferService;
+import service.log.Log;
+import service.transfer.bundle.Bundle;
+import service.transfer.copy.DeltaCopyEngine;
+import service.transfer.copy.FanOutCopier;
+import service.transfer.copy.ICopyEngine;
+import service.transfer.copy.RangeSplitCopyEngine;
+import service.transfer.filter.FilterRules;
+import service.transfer.filter.ScanFilter;
+import service.transfer.metrics.PhaseLatencies;
+import service.transfer.metrics.TimedPhase;
+import service.transfer.schedule.ITransferScheduler;
+import service.transfer.throttle.AdaptiveConcurrency;
+import service.transfer.throttle.TransferThrottle;
 
 import java.io.*;
 import java.lang.Thread;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TransferService implements ITransferService {
 
     public final static String HASHCODE_FILE_NAME = "hashcode.transfer";
     public final static String HASHCODE_FILE_PROP_HASH = "hashcode";
+    public final static String MANIFEST_FILE_NAME = ".filetransfer.manifest";
+    public final static String JOURNAL_FILE_NAME = ".filetransfer.journal";
+    public final static String BUNDLE_FOLDER_NAME = ".filetransfer.bundle";
+    public final static String LINKS_FILE_NAME = ".filetransfer.links";
     private final AtomicBoolean cancel = new AtomicBoolean(false);
+    private final TransferSettings settings = new TransferSettings();
+    private volatile ContinuousSync continuousSync;
+    // Kept across transfers, the limits can be changed at any time
+    private final TransferThrottle throttle = new TransferThrottle();
+
+    @Override
+    public TransferSettings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public TransferThrottle getThrottle() {
+        return throttle;
+    }
 
     @Override
     public PathProcessResult startProcessingRootFolder(File sourceFolderPath) {
+        return startProcessing(sourceFolderPath, Collections.emptyList(), null, new PhaseLatencies());
+    }
+
+    @Override
+    public PathProcessResult startProcessingRootFolder(File sourceFolderPath, File destinationFolderPath) {
+        // Knowing the destination lets the scan leave out the subtrees that haven't changed
+        PhaseLatencies latencies = new PhaseLatencies();
+        return startProcessing(sourceFolderPath,
+                Collections.singletonList(createDestination(destinationFolderPath, latencies, settings.isIndexDestination())), null, latencies);
+    }
+
+    @Override
+    public PathProcessResult startProcessingRootFolder(File sourceFolderPath, List<File> destinationFolderPaths) {
+        if(destinationFolderPaths.size() == 1) {
+            return startProcessingRootFolder(sourceFolderPath, destinationFolderPaths.get(0));
+        }
+        // A folder is only left out of the scan if it's unchanged at every destination
+        List<TransferDestination> destinations = Lists.newArrayListWithCapacity(destinationFolderPaths.size());
+        for (File destinationFolderPath : destinationFolderPaths) {
+            destinations.add(createFanOutDestination(destinationFolderPath));
+        }
+        return startProcessing(sourceFolderPath, destinations, null, new PhaseLatencies());
+    }
+
+    // Only scans the folders in the scope again, the rest keep the fingerprints the destination has for them
+    public PathProcessResult startProcessingChanges(File sourceFolderPath, File destinationFolderPath, SyncScope scope) {
+        PhaseLatencies latencies = new PhaseLatencies();
+        // Listing the whole destination would cost more than the few folders in the scope
+        return startProcessing(sourceFolderPath, Collections.singletonList(createDestination(destinationFolderPath, latencies, false)), scope,
+                latencies);
+    }
+
+    @Override
+    public ContinuousSync startContinuousSync(File sourceFolderPath, File destinationFolderPath) {
+        ContinuousSync sync = new ContinuousSync(this, sourceFolderPath, destinationFolderPath, settings.getWatchQuietMillis(),
+                settings.getWatchMaxDelayMillis());
+        continuousSync = sync;
+        sync.start();
+        return sync;
+    }
+
+    private PathProcessResult startProcessing(File sourceFolderPath, List<TransferDestination> destinations, SyncScope scope,
+                                              PhaseLatencies latencies) {
         cancel.set(false);
 
         // Start processing on another thread
-        PathProcessResult result = new PathProcessResult();
-        ProcessFolderThread thread = new ProcessFolderThread(sourceFolderPath, result, cancel);
+        ITransferScheduler scheduler = settings.getSchedulingPolicy().createScheduler(settings.getFolderQueueCapacity(),
+                settings.getTransferThreads(), settings.isWorkStealing());
+        // A bundle has its own format and a fan-out writes every copy itself, their files aren't linked
+        DedupIndex dedupIndex = settings.isDedup() && destinations.size() <= 1
+                && (destinations.isEmpty() || destinations.get(0).getBundle() == null)
+                ? DedupIndex.open(destinations.isEmpty() ? null : destinations.get(0).getFolder(), settings.getDedupMinSize()) : null;
+        PathProcessResult result = new PathProcessResult(scheduler, cancel, destinations, latencies, dedupIndex);
+        List<DestinationManifest> manifests = Lists.newArrayListWithCapacity(destinations.size());
+        for (TransferDestination destination : destinations) {
+            manifests.add(destination.getManifest());
+        }
+        ProcessFolderThread thread = new ProcessFolderThread(sourceFolderPath, result, cancel, settings.getScanParallelism(),
+                manifests, scope, createTaskExecutor("process-folder-task-"), createScanFilter());
         thread.start();
 
         return result;
@@ -35,16 +118,185 @@ public class TransferService implements ITransferService {
             return null;
         }
 
-        // Start transferring files
-        TransferProcessResult transferResult = new TransferProcessResult();
-        TransferProcessThread transferThread = new TransferProcessThread(sourceFolderPath, destinationFolderPath, result, transferResult, cancel);
-        transferThread.start();
+        // Start transferring files, the workers all drain the same folder queue
+        TransferProcessResult transferResult = new TransferProcessResult(result.getLatencies());
+        new TransferMetrics(result, transferResult).register();
+        DeviceConcurrencyLimiter deviceLimiter = new DeviceConcurrencyLimiter(settings.getMaxConcurrentCopiesPerDevice());
+        ICopyEngine copyEngine = createCopyEngine();
+        FileComparator fileComparator = new FileComparator(settings.getCompareStrategy(),
+                new ContentComparator(settings.getCompareWindowSize(), settings.getCompareThreads()));
+        TransferDestination destination = result.getDestination();
+        if(destination == null || !destination.getFolder().equals(destinationFolderPath)) {
+            destination = createDestination(destinationFolderPath, result.getLatencies(), settings.isIndexDestination());
+        }
+        VirtualTaskExecutor taskExecutor = createTaskExecutor("transfer-file-task-");
+        int workerCount = settings.getTransferThreads();
+        transferResult.setWorkerCount(workerCount);
+        AdaptiveConcurrency concurrency = null;
+        if(settings.isAdaptiveConcurrency()) {
+            // The transfer threads are the most it can go up to
+            concurrency = new AdaptiveConcurrency(workerCount, transferResult, throttle);
+            concurrency.start();
+        }
+        for (int i = 0; i < workerCount; i++) {
+            TransferProcessThread transferThread = new TransferProcessThread("transfer-thread-" + i, i, sourceFolderPath, destination,
+                    result, transferResult, deviceLimiter, copyEngine, fileComparator, settings.isRemoveLegacyHashcodeFiles(), throttle, concurrency, taskExecutor, cancel);
+            transferThread.start();
+        }
 
         return transferResult;
     }
 
+    @Override
+    public TransferProcessResult startTransferProcess(File sourceFolderPath, List<File> destinationFolderPaths, PathProcessResult result) {
+        if(destinationFolderPaths.size() == 1) {
+            return startTransferProcess(sourceFolderPath, destinationFolderPaths.get(0), result);
+        }
+        if(cancel.get()){
+            return null;
+        }
+
+        // Every worker reads each file once and writes it to all the destinations that need it
+        // The device limits, the adaptive thread count and virtual threads only apply to one destination
+        TransferProcessResult transferResult = new TransferProcessResult(result.getLatencies());
+        new TransferMetrics(result, transferResult).register();
+        List<TransferDestination> destinations = result.getDestinations();
+        if(!isSameFolders(destinations, destinationFolderPaths)) {
+            destinations = Lists.newArrayListWithCapacity(destinationFolderPaths.size());
+            for (File destinationFolderPath : destinationFolderPaths) {
+                destinations.add(createFanOutDestination(destinationFolderPath));
+            }
+        }
+        FileComparator fileComparator = new FileComparator(settings.getCompareStrategy(),
+                new ContentComparator(settings.getCompareWindowSize(), settings.getCompareThreads()));
+        int workerCount = settings.getTransferThreads();
+        FanOutCopier fanOutCopier = new FanOutCopier(settings.getCopyChunkSize(), settings.getFanOutQueueChunks(),
+                settings.getFanOutStallMillis(), workerCount * destinations.size());
+        ICopyEngine copyEngine = createCopyEngine();
+        transferResult.setWorkerCount(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            FanOutTransferThread transferThread = new FanOutTransferThread("transfer-thread-" + i, i, sourceFolderPath, destinations,
+                    result, transferResult, copyEngine, fanOutCopier, fileComparator, throttle, cancel);
+            transferThread.start();
+        }
+
+        return transferResult;
+    }
+
+    private static boolean isSameFolders(List<TransferDestination> destinations, List<File> destinationFolderPaths) {
+        if(destinations.size() != destinationFolderPaths.size()) {
+            return false;
+        }
+        for (int i = 0; i < destinations.size(); i++) {
+            if(!destinations.get(i).getFolder().equals(destinationFolderPaths.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Null when there are no rules, the age limits are taken from now
+    private ScanFilter createScanFilter() {
+        FilterRules filterRules = settings.getFilterRules();
+        return filterRules.isEmpty() ? null : filterRules.compile(System.currentTimeMillis());
+    }
+
+    // Returns null to use the platform threads
+    private VirtualTaskExecutor createTaskExecutor(String threadNamePrefix) {
+        if(settings.getExecutionMode() != ExecutionMode.VIRTUAL_THREADS) {
+            return null;
+        }
+        VirtualTaskExecutor taskExecutor = VirtualTaskExecutor.create(threadNamePrefix, settings.getMaxTasksPerDevice());
+        if(taskExecutor == null) {
+            Log.info("Virtual threads need Java 21 or later, using platform threads instead");
+        }
+        return taskExecutor;
+    }
+
+    private ICopyEngine createCopyEngine() {
+        ICopyEngine copyEngine = settings.getCopyMethod().createEngine(settings.getCopyChunkSize());
+        if(settings.getRangeSplitThresholdSize() > 0) {
+            // Very large files are copied as several ranges at once
+            copyEngine = new RangeSplitCopyEngine(copyEngine, settings.getRangeSplitThresholdSize(), settings.getRangeSize(),
+                    settings.getRangeCopyThreads());
+        }
+        if(settings.isDeltaTransfer()) {
+            // Large files that are already at the destination only get their changed blocks written
+            copyEngine = new DeltaCopyEngine(copyEngine, settings.getDeltaThresholdSize(), settings.getDeltaBlockSize());
+        }
+        return copyEngine;
+    }
+
+    private TransferDestination createDestination(File destinationFolderPath, PhaseLatencies latencies, boolean isIndexed) {
+        Bundle bundle = settings.isBundleDestination() ? openBundle(destinationFolderPath) : null;
+        if(bundle != null) {
+            // The bundle keeps its own manifest, its folders aren't at the destination as files.
+            // An unfinished segment is left out when the bundle is opened again, so there is nothing to resume or list.
+            return new TransferDestination(destinationFolderPath, loadManifest(bundle.getFolder().toFile(), null), null, null, bundle);
+        }
+        // Listed at the same time as the source is scanned
+        DestinationIndex index = isIndexed ? DestinationIndex.start(destinationFolderPath.toPath(), settings.getScanParallelism(), cancel) : null;
+        // The manifest looks its folders up in the index, to find the ones deleted from the destination
+        DestinationManifest manifest = loadManifest(destinationFolderPath, index);
+        TransferJournal journal = settings.isResumeJournal() ? openJournal(destinationFolderPath, manifest, latencies) : null;
+        return new TransferDestination(destinationFolderPath, manifest, journal, index, null);
+    }
+
+    // Only the manifest, a fan-out writes plain files and doesn't resume, index or bundle
+    private TransferDestination createFanOutDestination(File destinationFolderPath) {
+        return new TransferDestination(destinationFolderPath, loadManifest(destinationFolderPath, null), null, null, null);
+    }
+
+    private Bundle openBundle(File destinationFolderPath) {
+        try {
+            Bundle bundle = Bundle.open(new File(destinationFolderPath, BUNDLE_FOLDER_NAME).toPath(), settings.getBundleSegmentSize());
+            Log.debug("Opened bundle with %s files: %s", bundle.size(), bundle.getFolder());
+            return bundle;
+        } catch (IOException e) {
+            // Carry on with a file for each file
+            Log.info("Couldn't open the bundle in: %s", destinationFolderPath);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public long extractBundle(File destinationFolderPath, File targetFolderPath) throws IOException {
+        File bundleFolder = new File(destinationFolderPath, BUNDLE_FOLDER_NAME);
+        if(!bundleFolder.isDirectory()) {
+            throw new FileNotFoundException("No bundle in: " + destinationFolderPath);
+        }
+        Bundle bundle = Bundle.open(bundleFolder.toPath(), settings.getBundleSegmentSize());
+        return bundle.extractTo(targetFolderPath.toPath().toAbsolutePath().normalize());
+    }
+
+    private DestinationManifest loadManifest(File manifestFolderPath, DestinationIndex index) {
+        try {
+            return DestinationManifest.load(manifestFolderPath, index);
+        } catch (IOException e) {
+            // Every folder will be checked file by file instead
+            e.printStackTrace();
+            return DestinationManifest.empty(manifestFolderPath, index);
+        }
+    }
+
+    private TransferJournal openJournal(File destinationFolderPath, DestinationManifest manifest, PhaseLatencies latencies) {
+        try {
+            return TransferJournal.open(destinationFolderPath, manifest, settings.getJournalCheckpointSize(),
+                    latencies.get(TimedPhase.FSYNC));
+        } catch (IOException e) {
+            // Carry on without being able to resume
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     @Override
     public void stop() {
+        ContinuousSync sync = continuousSync;
+        if(sync != null) {
+            sync.stopWatching();
+        }
         cancel.set(true);
     }
 
@@ -0,0 +1,341 @@
+package service.transfer;
+
+import service.transfer.copy.CopyMethod;
+import service.transfer.filter.FilterRules;
+import service.transfer.schedule.SchedulingPolicy;
+
+public class TransferSettings {
+
+    public final static int DEFAULT_SCAN_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    public final static int DEFAULT_TRANSFER_THREADS = 4;
+    public final static int DEFAULT_FOLDER_QUEUE_CAPACITY = 1000;
+    public final static int DEFAULT_COPY_CHUNK_SIZE = 8 * 1024 * 1024;
+    public final static long DEFAULT_DELTA_THRESHOLD_SIZE = 64L * 1024 * 1024;
+    public final static int DEFAULT_DELTA_BLOCK_SIZE = 1024 * 1024;
+    public final static long DEFAULT_JOURNAL_CHECKPOINT_SIZE = 64L * 1024 * 1024;
+    public final static long DEFAULT_RANGE_SPLIT_THRESHOLD_SIZE = 1024L * 1024 * 1024;
+    public final static long DEFAULT_RANGE_SIZE = 64L * 1024 * 1024;
+    public final static int DEFAULT_RANGE_COPY_THREADS = 4;
+    public final static long DEFAULT_COMPARE_WINDOW_SIZE = 16L * 1024 * 1024;
+    public final static int DEFAULT_COMPARE_THREADS = Runtime.getRuntime().availableProcessors();
+    public final static int DEFAULT_MAX_TASKS_PER_DEVICE = 64;
+    public final static long DEFAULT_WATCH_QUIET_MILLIS = 1000;
+    public final static long DEFAULT_WATCH_MAX_DELAY_MILLIS = 10000;
+    public final static long DEFAULT_BUNDLE_SEGMENT_SIZE = 1024L * 1024 * 1024;
+    public final static long DEFAULT_DEDUP_MIN_SIZE = 64 * 1024;
+    public final static int DEFAULT_FAN_OUT_QUEUE_CHUNKS = 4;
+    public final static long DEFAULT_FAN_OUT_STALL_MILLIS = 5000;
+
+    private int scanParallelism = DEFAULT_SCAN_PARALLELISM;
+    private int transferThreads = DEFAULT_TRANSFER_THREADS;
+    private int folderQueueCapacity = DEFAULT_FOLDER_QUEUE_CAPACITY;
+    private CopyMethod copyMethod = CopyMethod.ZERO_COPY;
+    private int copyChunkSize = DEFAULT_COPY_CHUNK_SIZE;
+    private CompareStrategy compareStrategy = CompareStrategy.SIZE_AND_MTIME;
+    private boolean removeLegacyHashcodeFiles = true;
+    private boolean deltaTransfer = false;
+    private long deltaThresholdSize = DEFAULT_DELTA_THRESHOLD_SIZE;
+    private int deltaBlockSize = DEFAULT_DELTA_BLOCK_SIZE;
+    private boolean resumeJournal = true;
+    // Files smaller than this are simply copied again
+    private long journalCheckpointSize = DEFAULT_JOURNAL_CHECKPOINT_SIZE;
+    // 0 turns off splitting large files into ranges
+    private long rangeSplitThresholdSize = DEFAULT_RANGE_SPLIT_THRESHOLD_SIZE;
+    private long rangeSize = DEFAULT_RANGE_SIZE;
+    private int rangeCopyThreads = DEFAULT_RANGE_COPY_THREADS;
+    private long compareWindowSize = DEFAULT_COMPARE_WINDOW_SIZE;
+    private int compareThreads = DEFAULT_COMPARE_THREADS;
+    // 0 means no limit
+    private int maxConcurrentCopiesPerDevice = 0;
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM_THREADS;
+    // Only for virtual threads, how many listings or file tasks can run against one source or destination device
+    private int maxTasksPerDevice = DEFAULT_MAX_TASKS_PER_DEVICE;
+    private SchedulingPolicy schedulingPolicy = SchedulingPolicy.FIFO;
+    // Every transfer thread gets its own queue and takes from the others when it runs out
+    private boolean workStealing = false;
+    // Lets a controller decide how many of the transfer threads copy at once, from the throughput and latency
+    private boolean adaptiveConcurrency = false;
+    // Lists the whole destination up front instead of asking it about every file, worth it when it's far away
+    private boolean indexDestination = false;
+    // Continuous sync waits until the source has been quiet this long before a pass, but no longer than the max delay
+    private long watchQuietMillis = DEFAULT_WATCH_QUIET_MILLIS;
+    private long watchMaxDelayMillis = DEFAULT_WATCH_MAX_DELAY_MILLIS;
+    // Writes the files one after another into a few large segment files, for trees of many small files
+    private boolean bundleDestination = false;
+    private long bundleSegmentSize = DEFAULT_BUNDLE_SEGMENT_SIZE;
+    // With several destinations, how many chunks each one can fall behind the read, and for how long it may
+    // hold the others up before it's dropped from the file and gets its own copy
+    private int fanOutQueueChunks = DEFAULT_FAN_OUT_QUEUE_CHUNKS;
+    private long fanOutStallMillis = DEFAULT_FAN_OUT_STALL_MILLIS;
+    // What the scan leaves out
+    private FilterRules filterRules = new FilterRules();
+    // Files with the same content are copied once, the others become hard links to that copy
+    private boolean dedup = false;
+    // Smaller files are cheaper to copy than to hash
+    private long dedupMinSize = DEFAULT_DEDUP_MIN_SIZE;
+
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    public void setScanParallelism(int scanParallelism) {
+        this.scanParallelism = Math.max(1, scanParallelism);
+    }
+
+    public int getTransferThreads() {
+        return transferThreads;
+    }
+
+    public void setTransferThreads(int transferThreads) {
+        this.transferThreads = Math.max(1, transferThreads);
+    }
+
+    public int getMaxConcurrentCopiesPerDevice() {
+        return maxConcurrentCopiesPerDevice;
+    }
+
+    public void setMaxConcurrentCopiesPerDevice(int maxConcurrentCopiesPerDevice) {
+        this.maxConcurrentCopiesPerDevice = Math.max(0, maxConcurrentCopiesPerDevice);
+    }
+
+    public int getFolderQueueCapacity() {
+        return folderQueueCapacity;
+    }
+
+    public void setFolderQueueCapacity(int folderQueueCapacity) {
+        this.folderQueueCapacity = Math.max(1, folderQueueCapacity);
+    }
+
+    public CopyMethod getCopyMethod() {
+        return copyMethod;
+    }
+
+    public void setCopyMethod(CopyMethod copyMethod) {
+        this.copyMethod = copyMethod;
+    }
+
+    public int getCopyChunkSize() {
+        return copyChunkSize;
+    }
+
+    public void setCopyChunkSize(int copyChunkSize) {
+        this.copyChunkSize = Math.max(4096, copyChunkSize);
+    }
+
+    public CompareStrategy getCompareStrategy() {
+        return compareStrategy;
+    }
+
+    public void setCompareStrategy(CompareStrategy compareStrategy) {
+        this.compareStrategy = compareStrategy;
+    }
+
+    public boolean isRemoveLegacyHashcodeFiles() {
+        return removeLegacyHashcodeFiles;
+    }
+
+    public void setRemoveLegacyHashcodeFiles(boolean removeLegacyHashcodeFiles) {
+        this.removeLegacyHashcodeFiles = removeLegacyHashcodeFiles;
+    }
+
+    public boolean isDeltaTransfer() {
+        return deltaTransfer;
+    }
+
+    public void setDeltaTransfer(boolean deltaTransfer) {
+        this.deltaTransfer = deltaTransfer;
+    }
+
+    public long getDeltaThresholdSize() {
+        return deltaThresholdSize;
+    }
+
+    public void setDeltaThresholdSize(long deltaThresholdSize) {
+        this.deltaThresholdSize = Math.max(0, deltaThresholdSize);
+    }
+
+    public int getDeltaBlockSize() {
+        return deltaBlockSize;
+    }
+
+    public void setDeltaBlockSize(int deltaBlockSize) {
+        this.deltaBlockSize = Math.max(4096, deltaBlockSize);
+    }
+
+    public boolean isResumeJournal() {
+        return resumeJournal;
+    }
+
+    public void setResumeJournal(boolean resumeJournal) {
+        this.resumeJournal = resumeJournal;
+    }
+
+    public long getJournalCheckpointSize() {
+        return journalCheckpointSize;
+    }
+
+    public void setJournalCheckpointSize(long journalCheckpointSize) {
+        this.journalCheckpointSize = Math.max(1024 * 1024, journalCheckpointSize);
+    }
+
+    public long getRangeSplitThresholdSize() {
+        return rangeSplitThresholdSize;
+    }
+
+    public void setRangeSplitThresholdSize(long rangeSplitThresholdSize) {
+        this.rangeSplitThresholdSize = Math.max(0, rangeSplitThresholdSize);
+    }
+
+    public long getRangeSize() {
+        return rangeSize;
+    }
+
+    public void setRangeSize(long rangeSize) {
+        this.rangeSize = Math.max(1024 * 1024, rangeSize);
+    }
+
+    public int getRangeCopyThreads() {
+        return rangeCopyThreads;
+    }
+
+    public void setRangeCopyThreads(int rangeCopyThreads) {
+        this.rangeCopyThreads = Math.max(1, rangeCopyThreads);
+    }
+
+    public long getCompareWindowSize() {
+        return compareWindowSize;
+    }
+
+    public void setCompareWindowSize(long compareWindowSize) {
+        this.compareWindowSize = Math.max(64 * 1024, compareWindowSize);
+    }
+
+    public int getCompareThreads() {
+        return compareThreads;
+    }
+
+    public void setCompareThreads(int compareThreads) {
+        this.compareThreads = Math.max(1, compareThreads);
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public int getMaxTasksPerDevice() {
+        return maxTasksPerDevice;
+    }
+
+    public void setMaxTasksPerDevice(int maxTasksPerDevice) {
+        this.maxTasksPerDevice = Math.max(1, maxTasksPerDevice);
+    }
+
+    public long getWatchQuietMillis() {
+        return watchQuietMillis;
+    }
+
+    public void setWatchQuietMillis(long watchQuietMillis) {
+        this.watchQuietMillis = Math.max(0, watchQuietMillis);
+    }
+
+    public long getWatchMaxDelayMillis() {
+        return watchMaxDelayMillis;
+    }
+
+    public void setWatchMaxDelayMillis(long watchMaxDelayMillis) {
+        this.watchMaxDelayMillis = Math.max(0, watchMaxDelayMillis);
+    }
+
+    public boolean isIndexDestination() {
+        return indexDestination;
+    }
+
+    public void setIndexDestination(boolean indexDestination) {
+        this.indexDestination = indexDestination;
+    }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    public void setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+        this.schedulingPolicy = schedulingPolicy;
+    }
+
+    public boolean isWorkStealing() {
+        return workStealing;
+    }
+
+    public void setWorkStealing(boolean workStealing) {
+        this.workStealing = workStealing;
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public boolean isBundleDestination() {
+        return bundleDestination;
+    }
+
+    public void setBundleDestination(boolean bundleDestination) {
+        this.bundleDestination = bundleDestination;
+    }
+
+    public long getBundleSegmentSize() {
+        return bundleSegmentSize;
+    }
+
+    public void setBundleSegmentSize(long bundleSegmentSize) {
+        this.bundleSegmentSize = Math.max(1024 * 1024, bundleSegmentSize);
+    }
+
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    public long getDedupMinSize() {
+        return dedupMinSize;
+    }
+
+    public void setDedupMinSize(long dedupMinSize) {
+        this.dedupMinSize = Math.max(1, dedupMinSize);
+    }
+
+    public FilterRules getFilterRules() {
+        return filterRules;
+    }
+
+    public void setFilterRules(FilterRules filterRules) {
+        this.filterRules = filterRules;
+    }
+
+    public int getFanOutQueueChunks() {
+        return fanOutQueueChunks;
+    }
+
+    public void setFanOutQueueChunks(int fanOutQueueChunks) {
+        this.fanOutQueueChunks = Math.max(1, fanOutQueueChunks);
+    }
+
+    public long getFanOutStallMillis() {
+        return fanOutStallMillis;
+    }
+
+    public void setFanOutStallMillis(long fanOutStallMillis) {
+        this.fanOutStallMillis = Math.max(0, fanOutStallMillis);
+    }
+}
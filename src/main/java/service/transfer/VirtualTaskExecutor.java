@@ -0,0 +1,84 @@
+package service.transfer;
+
+import service.log.Log;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs every task on its own virtual thread. How many run against one device at once is capped by
+// a semaphore per source device and per destination device, instead of by the size of a thread pool.
+// Virtual threads are looked up at runtime, so the same build still runs on Java versions without them.
+public class VirtualTaskExecutor {
+
+    private final ExecutorService executor;
+    private final DeviceConcurrencyLimiter sourceLimiter;
+    private final DeviceConcurrencyLimiter destinationLimiter;
+
+    private VirtualTaskExecutor(ExecutorService executor, int maxTasksPerDevice) {
+        this.executor = executor;
+        this.sourceLimiter = new DeviceConcurrencyLimiter(maxTasksPerDevice);
+        this.destinationLimiter = new DeviceConcurrencyLimiter(maxTasksPerDevice);
+    }
+
+    // Returns null if this Java doesn't have virtual threads
+    public static VirtualTaskExecutor create(String threadNamePrefix, int maxTasksPerDevice) {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor(threadNamePrefix);
+        return executor == null ? null : new VirtualTaskExecutor(executor, maxTasksPerDevice);
+    }
+
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    // Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory()) on Java 21
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String threadNamePrefix) {
+        if(!isSupported()) {
+            return null;
+        }
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            Log.info("Couldn't create virtual threads: %s", e);
+            return null;
+        }
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    // Waits for a free slot on the source device, returns null if the user cancelled meanwhile.
+    // The slot has to be given back with release.
+    public Semaphore acquireSource(Path path, AtomicBoolean cancel) throws IOException {
+        return acquire(sourceLimiter.getSemaphore(path), cancel);
+    }
+
+    public Semaphore acquireDestination(Path path, AtomicBoolean cancel) throws IOException {
+        return acquire(destinationLimiter.getSemaphore(path), cancel);
+    }
+
+    private Semaphore acquire(Semaphore semaphore, AtomicBoolean cancel) {
+        return DeviceConcurrencyLimiter.acquire(semaphore, cancel) ? semaphore : null;
+    }
+
+    public void release(Semaphore semaphore) {
+        DeviceConcurrencyLimiter.release(semaphore);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
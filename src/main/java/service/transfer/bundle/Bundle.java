@@ -0,0 +1,149 @@
+package service.transfer.bundle;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import service.log.Log;
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// A destination that keeps the files in a few large segment files instead of one file each, for trees of
+// millions of small files where creating, writing and closing every one of them costs more than the data.
+// Every run appends the files that changed in new segments, the latest segment with a file has its current version.
+public class Bundle {
+
+    private final Path folder;
+    private final long segmentSize;
+    // The latest version of every file in the bundle
+    private final Map<String, BundleEntry> entries;
+    private final AtomicInteger nextSegmentNumber;
+
+    private Bundle(Path folder, long segmentSize, Map<String, BundleEntry> entries, int nextSegmentNumber) {
+        this.folder = folder;
+        this.segmentSize = segmentSize;
+        this.entries = entries;
+        this.nextSegmentNumber = new AtomicInteger(nextSegmentNumber);
+    }
+
+    // Reads the index of every finished segment, the folder is created if it isn't there yet
+    public static Bundle open(Path folder, long segmentSize) throws IOException {
+        Files.createDirectories(folder);
+        List<Path> segmentFiles;
+        try (Stream<Path> files = Files.list(folder)) {
+            segmentFiles = files.filter(file -> BundleSegment.getSegmentNumber(file) >= 0)
+                    .sorted(Comparator.comparingInt(BundleSegment::getSegmentNumber))
+                    .collect(Lists::newArrayList, List::add, List::addAll);
+        }
+
+        Map<String, BundleEntry> entries = Maps.newHashMap();
+        int nextSegmentNumber = 0;
+        for (Path segmentFile : segmentFiles) {
+            int segmentNumber = BundleSegment.getSegmentNumber(segmentFile);
+            nextSegmentNumber = segmentNumber + 1;
+            List<BundleEntry> segmentEntries = BundleSegment.readIndex(segmentFile, segmentNumber);
+            if(segmentEntries == null) {
+                // Its files are copied again
+                Log.info("Leaving out an unfinished bundle segment: %s", segmentFile);
+                continue;
+            }
+            for (BundleEntry entry : segmentEntries) {
+                entries.put(entry.getRelativePath(), entry);
+            }
+        }
+        return new Bundle(folder, segmentSize, entries, nextSegmentNumber);
+    }
+
+    public Path getFolder() {
+        return folder;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // True if the bundle already has this version of the file
+    public boolean isUnchanged(String relativeFilePath, FileEntry source) {
+        BundleEntry entry = entries.get(relativeFilePath);
+        return entry != null && entry.isSameVersion(source);
+    }
+
+    public BundleWriter newWriter() {
+        return new BundleWriter(this, segmentSize);
+    }
+
+    int nextSegmentNumber() {
+        return nextSegmentNumber.getAndIncrement();
+    }
+
+    Path getSegmentFile(int segmentNumber) {
+        return folder.resolve(BundleSegment.getFileName(segmentNumber));
+    }
+
+    // Writes the latest version of every file out under the target folder, segment by segment
+    // so each one is read front to back. Returns how many files were extracted.
+    public long extractTo(Path targetFolder) throws IOException {
+        List<BundleEntry> sortedEntries = Lists.newArrayList(entries.values());
+        sortedEntries.sort(Comparator.comparingInt(BundleEntry::getSegmentNumber).thenComparingLong(BundleEntry::getOffset));
+
+        Set<Path> createdFolders = Sets.newHashSet();
+        long extractedCount = 0;
+        int openSegmentNumber = -1;
+        FileChannel segmentChannel = null;
+        try {
+            for (BundleEntry entry : sortedEntries) {
+                if(entry.getSegmentNumber() != openSegmentNumber) {
+                    if(segmentChannel != null) {
+                        segmentChannel.close();
+                    }
+                    openSegmentNumber = entry.getSegmentNumber();
+                    segmentChannel = FileChannel.open(getSegmentFile(openSegmentNumber), StandardOpenOption.READ);
+                }
+                Path target = targetFolder.resolve(entry.getRelativePath()).normalize();
+                if(!target.startsWith(targetFolder)) {
+                    Log.info("Skipping a bundle entry outside the target folder: %s", entry.getRelativePath());
+                    continue;
+                }
+                if(createdFolders.add(target.getParent())) {
+                    Files.createDirectories(target.getParent());
+                }
+                extract(segmentChannel, entry, target);
+                extractedCount++;
+            }
+        } finally {
+            if(segmentChannel != null) {
+                segmentChannel.close();
+            }
+        }
+        return extractedCount;
+    }
+
+    private void extract(FileChannel segmentChannel, BundleEntry entry, Path target) throws IOException {
+        try (FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (position < entry.getLength()) {
+                long count = segmentChannel.transferTo(entry.getOffset() + position, entry.getLength() - position, targetChannel);
+                if(count <= 0) {
+                    throw new IOException("The bundle segment ends before " + entry.getRelativePath());
+                }
+                position += count;
+            }
+        }
+        Set<PosixFilePermission> permissions = entry.getPermissions();
+        if(permissions != null && Files.getFileStore(target).supportsFileAttributeView("posix")) {
+            Files.setPosixFilePermissions(target, permissions);
+        }
+        Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getLastModified()));
+    }
+}
@@ -0,0 +1,103 @@
+package service.transfer.bundle;
+
+import service.transfer.FileEntry;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Set;
+
+// Where the content of one file is in the bundle, and what it gets back when it's extracted
+public class BundleEntry {
+
+    private static final PosixFilePermission[] PERMISSIONS = PosixFilePermission.values();
+
+    private final String relativePath;
+    private final int segmentNumber;
+    private final long offset;
+    private final long length;
+    private final long lastModified;
+    // One bit for each PosixFilePermission, -1 when the source didn't have any
+    private final int permissions;
+
+    BundleEntry(String relativePath, int segmentNumber, long offset, long length, long lastModified, int permissions) {
+        this.relativePath = relativePath;
+        this.segmentNumber = segmentNumber;
+        this.offset = offset;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.permissions = permissions;
+    }
+
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    public int getSegmentNumber() {
+        return segmentNumber;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    // Null when the source didn't have any
+    public Set<PosixFilePermission> getPermissions() {
+        if(permissions < 0) {
+            return null;
+        }
+        Set<PosixFilePermission> permissionSet = EnumSet.noneOf(PosixFilePermission.class);
+        for (PosixFilePermission permission : PERMISSIONS) {
+            if((permissions & (1 << permission.ordinal())) != 0) {
+                permissionSet.add(permission);
+            }
+        }
+        return permissionSet;
+    }
+
+    boolean isSameVersion(FileEntry source) {
+        return length == source.getSize() && lastModified == source.getLastModified();
+    }
+
+    // The listing only has the basic attributes, so this is one more stat of the source
+    static int getPermissionBits(FileEntry file) throws IOException {
+        BasicFileAttributes attributes = file.getAttributes();
+        if(!(attributes instanceof PosixFileAttributes)) {
+            try {
+                attributes = Files.readAttributes(file.getPath(), PosixFileAttributes.class);
+            } catch (UnsupportedOperationException e) {
+                return -1;
+            }
+        }
+        int bits = 0;
+        for (PosixFilePermission permission : ((PosixFileAttributes) attributes).permissions()) {
+            bits |= 1 << permission.ordinal();
+        }
+        return bits;
+    }
+
+    static BundleEntry read(DataInputStream in, int segmentNumber) throws IOException {
+        return new BundleEntry(in.readUTF(), segmentNumber, in.readLong(), in.readLong(), in.readLong(), in.readShort());
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(relativePath);
+        out.writeLong(offset);
+        out.writeLong(length);
+        out.writeLong(lastModified);
+        out.writeShort(permissions);
+    }
+}
@@ -0,0 +1,91 @@
+package service.transfer.bundle;
+
+import com.google.common.collect.Lists;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// One segment file: a header, the file contents one after another, then the index of what's in it
+// and a footer pointing at the index. A segment without its footer was never finished and is left out.
+class BundleSegment {
+
+    static final int MAGIC = 0x46544231; // FTB1
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int FOOTER_SIZE = 12;
+    private static final String FILE_PREFIX = "segment-";
+    private static final String FILE_SUFFIX = ".ftb";
+
+    private BundleSegment(){ }
+
+    static String getFileName(int segmentNumber) {
+        return String.format("%s%06d%s", FILE_PREFIX, segmentNumber, FILE_SUFFIX);
+    }
+
+    // -1 if it isn't a segment file
+    static int getSegmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        if(!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    // Writes the index and the footer at the current position of the channel
+    static void writeIndex(FileChannel channel, List<BundleEntry> entries) throws IOException {
+        long indexOffset = channel.position();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        out.writeInt(entries.size());
+        for (BundleEntry entry : entries) {
+            entry.write(out);
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(MAGIC);
+        out.flush();
+    }
+
+    // Null if the segment was never finished
+    static List<BundleEntry> readIndex(Path file, int segmentNumber) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < HEADER_SIZE + FOOTER_SIZE) {
+                return null;
+            }
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            while (footer.hasRemaining() && channel.read(footer, size - FOOTER_SIZE + footer.position()) > 0) {
+                // Keep reading
+            }
+            footer.flip();
+            long indexOffset = footer.getLong();
+            if(footer.getInt() != MAGIC || indexOffset < HEADER_SIZE || indexOffset > size - FOOTER_SIZE) {
+                return null;
+            }
+
+            channel.position(indexOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int count = in.readInt();
+            List<BundleEntry> entries = Lists.newArrayListWithCapacity(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(BundleEntry.read(in, segmentNumber));
+            }
+            return entries;
+        }
+    }
+}
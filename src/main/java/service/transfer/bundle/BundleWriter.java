@@ -0,0 +1,126 @@
+package service.transfer.bundle;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import service.transfer.FileEntry;
+import service.transfer.copy.CopyProgress;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Appends files to a segment of the bundle one after another, and starts a new segment once it's full.
+// Every transfer thread has its own, so the segments are each written front to back.
+// A segment can only be read once its index is written, so the folders in it only count as done from then on.
+public class BundleWriter {
+
+    private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private final Bundle bundle;
+    private final long segmentSize;
+    private FileChannel channel;
+    private int segmentNumber;
+    private List<BundleEntry> entries;
+    // Folders with all their files appended, waiting for their segment to be finished
+    private final Map<String, HashCode> pendingFolders = Maps.newLinkedHashMap();
+    private final Map<String, HashCode> finishedFolders = Maps.newLinkedHashMap();
+    private final Set<String> failedFolders = Sets.newLinkedHashSet();
+
+    BundleWriter(Bundle bundle, long segmentSize) {
+        this.bundle = bundle;
+        this.segmentSize = segmentSize;
+    }
+
+    // Returns false if the user cancelled, the part that was written is dropped again
+    public boolean append(String relativePath, FileEntry file, CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        if(channel == null || channel.position() >= segmentSize) {
+            startSegment();
+        }
+        long offset = channel.position();
+        try (FileChannel sourceChannel = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+            long size = sourceChannel.size();
+            long position = 0;
+            while (position < size) {
+                if(cancel.get()) {
+                    channel.truncate(offset);
+                    channel.position(offset);
+                    return false;
+                }
+                long count = sourceChannel.transferTo(position, Math.min(CHUNK_SIZE, size - position), channel);
+                if(count <= 0) {
+                    // The file got shorter while copying
+                    break;
+                }
+                position += count;
+                progress.addBytesRead(count);
+                progress.addBytesWritten(count);
+            }
+            entries.add(new BundleEntry(relativePath, segmentNumber, offset, position, file.getLastModified(),
+                    BundleEntry.getPermissionBits(file)));
+            return true;
+        } catch (IOException e) {
+            // Leave the segment the way it was before this file
+            channel.truncate(offset);
+            channel.position(offset);
+            throw e;
+        }
+    }
+
+    // Every file of the folder has been appended
+    public void addFolder(String relativePath, HashCode folderFingerprint) {
+        pendingFolders.put(relativePath, folderFingerprint);
+    }
+
+    // The folders whose segment has been finished since the last call, they can go into the manifest
+    public Map<String, HashCode> takeFinishedFolders() {
+        Map<String, HashCode> folders = Maps.newLinkedHashMap(finishedFolders);
+        finishedFolders.clear();
+        return folders;
+    }
+
+    // The folders whose segment couldn't be finished since the last call, it's left out when the bundle is opened again
+    public Set<String> takeFailedFolders() {
+        Set<String> folders = Sets.newLinkedHashSet(failedFolders);
+        failedFolders.clear();
+        return folders;
+    }
+
+    private void startSegment() throws IOException {
+        finishSegment();
+        segmentNumber = bundle.nextSegmentNumber();
+        Path segmentFile = bundle.getSegmentFile(segmentNumber);
+        channel = FileChannel.open(segmentFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        entries = Lists.newArrayList();
+        BundleSegment.writeHeader(channel);
+    }
+
+    // Writes the index so the segment can be read, and forces it to the disk
+    private void finishSegment() throws IOException {
+        if(channel == null) {
+            return;
+        }
+        try {
+            BundleSegment.writeIndex(channel, entries);
+            channel.force(false);
+            finishedFolders.putAll(pendingFolders);
+        } catch (IOException e) {
+            failedFolders.addAll(pendingFolders.keySet());
+            throw e;
+        } finally {
+            pendingFolders.clear();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    public void close() throws IOException {
+        finishSegment();
+    }
+}
@@ -0,0 +1,32 @@
+package service.transfer.copy;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Reusable buffers handed out per use instead of per thread. A ThreadLocal would allocate a new buffer
+// for every file when each file runs on its own virtual thread, this only holds as many as are in use at once.
+public class BufferPool {
+
+    private final int bufferSize;
+    private final boolean isDirect;
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    public BufferPool(int bufferSize, boolean isDirect) {
+        this.bufferSize = bufferSize;
+        this.isDirect = isDirect;
+    }
+
+    public ByteBuffer take() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if(buffer == null) {
+            buffer = isDirect ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        freeBuffers.offer(buffer);
+    }
+}
@@ -0,0 +1,138 @@
+package service.transfer.copy;
+
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Copies with FileChannel.transferTo so the kernel can skip the trip through user space,
+// one chunk at a time so large files can be cancelled and report their progress.
+public class ChannelCopyEngine implements ICopyEngine {
+
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private final int chunkSize;
+    // Only used when zero-copy isn't available
+    private final BufferPool buffers;
+
+    public ChannelCopyEngine(int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.buffers = new BufferPool(Math.min(chunkSize, MAX_BUFFER_SIZE), true);
+    }
+
+    @Override
+    public boolean copy(FileEntry source, Path destination, BasicFileAttributes destinationAttributes, CopyProgress progress,
+                        AtomicBoolean cancel) throws IOException {
+        return copyFrom(source, destination, 0, progress, cancel);
+    }
+
+    @Override
+    public boolean resume(FileEntry source, Path destination, BasicFileAttributes destinationAttributes, long offset,
+                          CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        return copyFrom(source, destination, offset, progress, cancel);
+    }
+
+    private boolean copyFrom(FileEntry source, Path destination, long offset, CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        if(CopyTarget.isLink(source)) {
+            CopyTarget.copyLink(source, destination);
+            progress.addBytesRead(source.getSize());
+            progress.addBytesWritten(source.getSize());
+            return true;
+        }
+
+        boolean isComplete;
+        try (FileChannel sourceChannel = FileChannel.open(source.getPath(), StandardOpenOption.READ);
+             FileChannel destinationChannel = CopyTarget.open(destination, offset)) {
+            isComplete = copy(sourceChannel, destinationChannel, destinationChannel.position(), progress, cancel);
+        }
+
+        if(!isComplete) {
+            if(progress.getCheckpointSize() == 0) {
+                // Nothing will carry on from here, don't leave half a file behind
+                Files.deleteIfExists(destination);
+            }
+            return false;
+        }
+        CopyAttributes.apply(source, destination);
+        return true;
+    }
+
+    private boolean copy(FileChannel sourceChannel, FileChannel destinationChannel, long position, CopyProgress progress,
+                         AtomicBoolean cancel) throws IOException {
+        long size = sourceChannel.size();
+        long checkpointSize = progress.getCheckpointSize();
+        long nextCheckpoint = position + checkpointSize;
+        while (position < size) {
+            if(cancel.get()) {
+                return false;
+            }
+            long count = sourceChannel.transferTo(position, Math.min(chunkSize, size - position), destinationChannel);
+            if(count <= 0) {
+                // Zero-copy isn't working for these channels, do the rest through a buffer
+                return copyWithBuffer(sourceChannel, destinationChannel, position, size, progress, cancel);
+            }
+            position += count;
+            progress.addBytesRead(count);
+            progress.addBytesWritten(count);
+
+            if(checkpointSize > 0 && position >= nextCheckpoint && position < size) {
+                long forceStart = System.nanoTime();
+                destinationChannel.force(false);
+                progress.addFsyncTime(System.nanoTime() - forceStart);
+                progress.checkpoint(position);
+                nextCheckpoint = position + checkpointSize;
+            }
+        }
+        return true;
+    }
+
+    private boolean copyWithBuffer(FileChannel sourceChannel, FileChannel destinationChannel, long position, long size,
+                                   CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        ByteBuffer buffer = buffers.take();
+        try {
+            return copyWithBuffer(sourceChannel, destinationChannel, position, size, buffer, progress, cancel);
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    private boolean copyWithBuffer(FileChannel sourceChannel, FileChannel destinationChannel, long position, long size,
+                                   ByteBuffer buffer, CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        long checkpointSize = progress.getCheckpointSize();
+        long nextCheckpoint = position + checkpointSize;
+        destinationChannel.position(position);
+        while (position < size) {
+            if(cancel.get()) {
+                return false;
+            }
+            buffer.clear();
+            int count = sourceChannel.read(buffer, position);
+            if(count < 0) {
+                // The file got shorter while copying
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                destinationChannel.write(buffer);
+            }
+            position += count;
+            progress.addBytesRead(count);
+            progress.addBytesWritten(count);
+
+            if(checkpointSize > 0 && position >= nextCheckpoint && position < size) {
+                long forceStart = System.nanoTime();
+                destinationChannel.force(false);
+                progress.addFsyncTime(System.nanoTime() - forceStart);
+                progress.checkpoint(position);
+                nextCheckpoint = position + checkpointSize;
+            }
+        }
+        return true;
+    }
+}
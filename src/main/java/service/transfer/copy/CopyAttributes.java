@@ -0,0 +1,43 @@
+package service.transfer.copy;
+
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.*;
+
+// Does what StandardCopyOption.COPY_ATTRIBUTES does for Files.copy
+public class CopyAttributes {
+
+    private CopyAttributes(){ }
+
+    public static void apply(FileEntry source, Path destination) throws IOException {
+        BasicFileAttributes attributes = source.getAttributes();
+
+        PosixFileAttributeView sourcePosixView = Files.getFileAttributeView(source.getPath(), PosixFileAttributeView.class);
+        PosixFileAttributeView destinationPosixView = Files.getFileAttributeView(destination, PosixFileAttributeView.class);
+        if(sourcePosixView != null && destinationPosixView != null) {
+            destinationPosixView.setPermissions(sourcePosixView.readAttributes().permissions());
+        } else {
+            DosFileAttributeView sourceDosView = Files.getFileAttributeView(source.getPath(), DosFileAttributeView.class);
+            DosFileAttributeView destinationDosView = Files.getFileAttributeView(destination, DosFileAttributeView.class);
+            if(sourceDosView != null && destinationDosView != null) {
+                DosFileAttributes dosAttributes = sourceDosView.readAttributes();
+                destinationDosView.setArchive(dosAttributes.isArchive());
+                destinationDosView.setHidden(dosAttributes.isHidden());
+                destinationDosView.setSystem(dosAttributes.isSystem());
+            }
+        }
+
+        // Times last, writing the other attributes can touch them
+        Files.getFileAttributeView(destination, BasicFileAttributeView.class)
+                .setTimes(attributes.lastModifiedTime(), attributes.lastAccessTime(), attributes.creationTime());
+    }
+
+    // For a destination that already has the content, so the next run can decide from the metadata alone
+    public static void applyModifiedTime(FileEntry source, Path destination) throws IOException {
+        Files.getFileAttributeView(destination, BasicFileAttributeView.class)
+                .setTimes(source.getAttributes().lastModifiedTime(), null, null);
+    }
+}
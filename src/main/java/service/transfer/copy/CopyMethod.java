@@ -0,0 +1,18 @@
+package service.transfer.copy;
+
+public enum CopyMethod {
+    // FileChannel.transferTo in chunks, with cancel checks and progress between chunks
+    ZERO_COPY,
+    // Files.copy in one go, like it used to be
+    FILES_COPY;
+
+    public ICopyEngine createEngine(int chunkSize) {
+        switch (this) {
+            case FILES_COPY:
+                return new FilesCopyEngine();
+            case ZERO_COPY:
+            default:
+                return new ChannelCopyEngine(chunkSize);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package service.transfer.copy;
+
+public interface CopyProgress {
+
+    void addBytesRead(long bytes);
+
+    void addBytesWritten(long bytes);
+
+    // How long it took to force written data to the disk
+    default void addFsyncTime(long nanos) {
+    }
+
+    // How many bytes to copy between checkpoints, 0 if this copy can't be resumed later
+    default long getCheckpointSize() {
+        return 0;
+    }
+
+    // Everything before the position is written and forced to the disk
+    default void checkpoint(long position) {
+    }
+}
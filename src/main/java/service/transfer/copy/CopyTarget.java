@@ -0,0 +1,63 @@
+package service.transfer.copy;
+
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+// Treats the destination of a copy the way Files.copy with REPLACE_EXISTING and NOFOLLOW_LINKS does.
+// Whatever is at the destination is replaced rather than written through, so a link there is never followed,
+// a read-only file doesn't stop the copy and a hard link keeps its other names as they were.
+public class CopyTarget {
+
+    private CopyTarget(){ }
+
+    // The scan follows links, a link at the source looks like the file it points to
+    public static boolean isLink(FileEntry source) {
+        return Files.isSymbolicLink(source.getPath());
+    }
+
+    // Copies a link as a link
+    public static void copyLink(FileEntry source, Path destination) throws IOException {
+        Files.copy(source.getPath(), destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES,
+                LinkOption.NOFOLLOW_LINKS);
+    }
+
+    // Only a regular file that can be written to is ever written in place
+    public static boolean isWritableFile(Path destination, BasicFileAttributes destinationAttributes) {
+        return destinationAttributes != null && destinationAttributes.isRegularFile() && Files.isWritable(destination);
+    }
+
+    // A hard linked file shares its data and its modified time with its other names
+    public static boolean isHardLinked(Path destination) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(destination, "unix:nlink", LinkOption.NOFOLLOW_LINKS) > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Not a unix file system
+            return false;
+        }
+    }
+
+    // Opens the destination positioned at the offset. Anything past the offset is left over from an unfinished copy.
+    // A destination that can't be written in place is replaced by a new file, and the copy starts over from 0.
+    public static FileChannel open(Path destination, long offset) throws IOException {
+        if(offset > 0 && isWritableFile(destination, readAttributes(destination))) {
+            FileChannel channel = FileChannel.open(destination, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.truncate(offset);
+            channel.position(offset);
+            return channel;
+        }
+        Files.deleteIfExists(destination);
+        return FileChannel.open(destination, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+    }
+
+    private static BasicFileAttributes readAttributes(Path destination) throws IOException {
+        try {
+            return Files.readAttributes(destination, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package service.transfer.copy;
+
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Updates a large destination file in place, block by block, only writing the blocks that differ from the source.
+// Smaller files, and files that aren't at the destination yet, go to the full copy engine.
+public class DeltaCopyEngine implements ICopyEngine {
+
+    private final ICopyEngine fullCopyEngine;
+    private final long thresholdSize;
+    private final int blockSize;
+    private final BufferPool buffers;
+
+    public DeltaCopyEngine(ICopyEngine fullCopyEngine, long thresholdSize, int blockSize) {
+        this.fullCopyEngine = fullCopyEngine;
+        this.thresholdSize = thresholdSize;
+        this.blockSize = blockSize;
+        this.buffers = new BufferPool(blockSize, true);
+    }
+
+    @Override
+    public boolean copy(FileEntry source, Path destination, BasicFileAttributes destinationAttributes, CopyProgress progress,
+                        AtomicBoolean cancel) throws IOException {
+        if(source.getSize() < thresholdSize || CopyTarget.isLink(source)
+                || !CopyTarget.isWritableFile(destination, destinationAttributes)) {
+            return fullCopyEngine.copy(source, destination, destinationAttributes, progress, cancel);
+        }
+
+        boolean isComplete;
+        try (FileChannel sourceChannel = FileChannel.open(source.getPath(), StandardOpenOption.READ);
+             FileChannel destinationChannel = FileChannel.open(destination, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            isComplete = updateBlocks(sourceChannel, destinationChannel, progress, cancel);
+        }
+
+        if(!isComplete) {
+            // The destination is part old, part new. It keeps its old modified time so the next run updates it again.
+            return false;
+        }
+        CopyAttributes.apply(source, destination);
+        return true;
+    }
+
+    @Override
+    public boolean resume(FileEntry source, Path destination, BasicFileAttributes destinationAttributes, long offset,
+                          CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        // The start of the file is already known to be right
+        return fullCopyEngine.resume(source, destination, destinationAttributes, offset, progress, cancel);
+    }
+
+    @Override
+    public void close() {
+        fullCopyEngine.close();
+    }
+
+    private boolean updateBlocks(FileChannel sourceChannel, FileChannel destinationChannel, CopyProgress progress,
+                                 AtomicBoolean cancel) throws IOException {
+        ByteBuffer sourceBlock = buffers.take();
+        ByteBuffer destinationBlock = buffers.take();
+        try {
+            return updateBlocks(sourceChannel, destinationChannel, sourceBlock, destinationBlock, progress, cancel);
+        } finally {
+            buffers.release(sourceBlock);
+            buffers.release(destinationBlock);
+        }
+    }
+
+    private boolean updateBlocks(FileChannel sourceChannel, FileChannel destinationChannel, ByteBuffer sourceBlock,
+                                 ByteBuffer destinationBlock, CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        long size = sourceChannel.size();
+        long destinationSize = destinationChannel.size();
+
+        for (long position = 0; position < size; position += blockSize) {
+            if(cancel.get()) {
+                return false;
+            }
+            int length = readBlock(sourceChannel, sourceBlock, position);
+            progress.addBytesRead(length);
+
+            // Both sides are local, so the blocks are compared directly rather than through a checksum
+            boolean isSameBlock = false;
+            if(position + length <= destinationSize) {
+                int destinationLength = readBlock(destinationChannel, destinationBlock, position);
+                progress.addBytesRead(destinationLength);
+                isSameBlock = destinationLength == length && sourceBlock.mismatch(destinationBlock) == -1;
+            }
+
+            if(!isSameBlock) {
+                while (sourceBlock.hasRemaining()) {
+                    destinationChannel.write(sourceBlock, position + sourceBlock.position());
+                }
+                progress.addBytesWritten(length);
+            }
+        }
+
+        if(destinationSize > size) {
+            destinationChannel.truncate(size);
+        }
+        return true;
+    }
+
+    // Fills the buffer from the given position, returns how much was read
+    private int readBlock(FileChannel channel, ByteBuffer block, long position) throws IOException {
+        block.clear();
+        while (block.hasRemaining()) {
+            int count = channel.read(block, position + block.position());
+            if(count < 0) {
+                break;
+            }
+        }
+        block.flip();
+        return block.limit();
+    }
+}
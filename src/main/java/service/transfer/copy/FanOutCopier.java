@@ -0,0 +1,260 @@
+package service.transfer.copy;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import service.log.Log;
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Reads a file once and writes it to several destinations at the same time. Every chunk that is read is shared
+// by all of them, each destination has its own writer thread and a short queue of chunks. A destination that
+// keeps its queue full for longer than the stall time is dropped from the file, so the others carry on,
+// and gets its own copy afterwards.
+public class FanOutCopier {
+
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    private static final long POLL_MILLIS = 100;
+    // Tells a writer the whole file has been read
+    private static final Chunk END = new Chunk(null, null, 0);
+
+    private final int queueChunks;
+    private final long stallMillis;
+    private final BufferPool buffers;
+    private final ExecutorService writerService;
+
+    // Every copying thread has at most one writer per destination running, so writerThreads is the copying threads
+    // times the destinations. No writer ever waits for a thread while its reader fills its queue.
+    public FanOutCopier(int chunkSize, int queueChunks, long stallMillis, int writerThreads) {
+        this.queueChunks = Math.max(1, queueChunks);
+        this.stallMillis = stallMillis;
+        this.buffers = new BufferPool(Math.min(chunkSize, MAX_BUFFER_SIZE), true);
+        this.writerService = Executors.newFixedThreadPool(writerThreads,
+                new ThreadFactoryBuilder().setNameFormat("fan-out-writer-%d").setDaemon(true).build());
+    }
+
+    // Returns the destinations that got the whole file and the source attributes. The others fell behind
+    // or failed and need a copy of their own, or were left out because the user cancelled.
+    public List<Path> copy(FileEntry source, List<Path> destinations, CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        if(CopyTarget.isLink(source)) {
+            // A link is copied as a link, every destination does its own
+            return Lists.newArrayList();
+        }
+
+        List<DestinationWriter> writers = Lists.newArrayListWithCapacity(destinations.size());
+        for (Path destination : destinations) {
+            DestinationWriter writer = new DestinationWriter(source, destination, progress);
+            writer.future = writerService.submit(writer);
+            writers.add(writer);
+        }
+
+        boolean isRead = false;
+        try {
+            read(source, writers, progress, cancel);
+            isRead = !cancel.get();
+        } finally {
+            // Only a file that was read to the end is finished, the rest are dropped
+            for (DestinationWriter writer : writers) {
+                if(!isRead || !writer.offer(END)) {
+                    writer.drop();
+                }
+            }
+        }
+
+        // Waits for the writers, the ones that were dropped stop at their next chunk
+        List<Path> completed = Lists.newArrayListWithCapacity(writers.size());
+        for (DestinationWriter writer : writers) {
+            if(writer.await()) {
+                completed.add(writer.destination);
+            } else if(cancel.get()) {
+                // Nothing will carry on from here, don't leave half a file behind
+                Files.deleteIfExists(writer.destination);
+            }
+        }
+        return completed;
+    }
+
+    // The queues are all the backpressure there is, a chunk is only read once every destination that's still
+    // in had room for the one before it
+    private void read(FileEntry source, List<DestinationWriter> writers, CopyProgress progress, AtomicBoolean cancel)
+            throws IOException {
+        try (FileChannel sourceChannel = FileChannel.open(source.getPath(), StandardOpenOption.READ)) {
+            while (!cancel.get()) {
+                ByteBuffer buffer = buffers.take();
+                int count = readChunk(sourceChannel, buffer);
+                if(count <= 0) {
+                    buffers.release(buffer);
+                    return;
+                }
+                buffer.flip();
+                progress.addBytesRead(count);
+
+                List<DestinationWriter> activeWriters = Lists.newArrayListWithCapacity(writers.size());
+                for (DestinationWriter writer : writers) {
+                    if(!writer.isDropped) {
+                        activeWriters.add(writer);
+                    }
+                }
+                if(activeWriters.isEmpty()) {
+                    buffers.release(buffer);
+                    return;
+                }
+                Chunk chunk = new Chunk(buffer, buffers, activeWriters.size());
+                for (DestinationWriter writer : activeWriters) {
+                    if(!writer.offer(chunk)) {
+                        Log.info("Destination fell behind, it gets its own copy: %s", writer.destination);
+                        writer.drop();
+                        chunk.release();
+                    }
+                }
+            }
+        }
+    }
+
+    // Fills the buffer unless the file ends first, returns how much was read
+    private static int readChunk(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer);
+            if(count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    public void close() {
+        writerService.shutdown();
+    }
+
+    // One chunk of the file, the buffer goes back once every writer is done with it
+    private static class Chunk {
+        private final ByteBuffer buffer;
+        private final BufferPool buffers;
+        private final AtomicInteger references;
+        Chunk(ByteBuffer buffer, BufferPool buffers, int references) {
+            this.buffer = buffer;
+            this.buffers = buffers;
+            this.references = new AtomicInteger(references);
+        }
+        void release() {
+            if(this != END && references.decrementAndGet() == 0) {
+                buffers.release(buffer);
+            }
+        }
+    }
+
+    private class DestinationWriter implements Callable<Boolean> {
+        private final FileEntry source;
+        private final Path destination;
+        private final CopyProgress progress;
+        // One more for the END
+        private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(queueChunks + 1);
+        private volatile boolean isDropped;
+        private Future<Boolean> future;
+
+        DestinationWriter(FileEntry source, Path destination, CopyProgress progress) {
+            this.source = source;
+            this.destination = destination;
+            this.progress = progress;
+        }
+
+        // Waits up to the stall time for room in the queue, returns false if there wasn't any
+        boolean offer(Chunk chunk) {
+            if(isDropped) {
+                return false;
+            }
+            try {
+                if(!queue.offer(chunk, stallMillis, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if(isDropped) {
+                // The writer stopped while this went in, nobody else is going to take it
+                drain();
+            }
+            return true;
+        }
+
+        // The chunks it hasn't taken yet go back right away, it finishes the one it's writing
+        void drop() {
+            isDropped = true;
+            drain();
+        }
+
+        @Override
+        public Boolean call() throws IOException, InterruptedException {
+            boolean isComplete = false;
+            try {
+                try (FileChannel channel = CopyTarget.open(destination, 0)) {
+                    while (!isDropped) {
+                        Chunk chunk = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if(chunk == END) {
+                            isComplete = true;
+                            break;
+                        }
+                        if(chunk != null) {
+                            write(channel, chunk);
+                        }
+                    }
+                }
+            } finally {
+                isDropped = true;
+                drain();
+            }
+            if(!isComplete) {
+                return false;
+            }
+            CopyAttributes.apply(source, destination);
+            return true;
+        }
+
+        private void write(FileChannel channel, Chunk chunk) throws IOException {
+            try {
+                // Every writer has its own position in the shared buffer
+                ByteBuffer data = chunk.buffer.duplicate();
+                int count = data.remaining();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                progress.addBytesWritten(count);
+            } finally {
+                chunk.release();
+            }
+        }
+
+        private void drain() {
+            Chunk chunk;
+            while ((chunk = queue.poll()) != null) {
+                chunk.release();
+            }
+        }
+
+        // True if the whole file was written
+        boolean await() throws IOException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                Log.info("Exception while writing to: %s", destination);
+                e.getCause().printStackTrace();
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package service.transfer.copy;
+
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class FilesCopyEngine implements ICopyEngine {
+
+    @Override
+    public boolean copy(FileEntry source, Path destination, BasicFileAttributes destinationAttributes, CopyProgress progress,
+                        AtomicBoolean cancel) throws IOException {
+        Files.copy(source.getPath(), destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+        progress.addBytesRead(source.getSize());
+        progress.addBytesWritten(source.getSize());
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package service.transfer.copy;
+
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public interface ICopyEngine {
+
+    // Copies the source file over the destination and applies the source attributes.
+    // The destination attributes are null if it doesn't exist yet.
+    // Returns false if the user cancelled part way through, the destination is then left out of date.
+    boolean copy(FileEntry source, Path destination, BasicFileAttributes destinationAttributes, CopyProgress progress,
+                 AtomicBoolean cancel) throws IOException;
+
+    // Carries on with a copy an earlier run didn't finish, the destination already holds everything before the offset
+    default boolean resume(FileEntry source, Path destination, BasicFileAttributes destinationAttributes, long offset,
+                           CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        return copy(source, destination, destinationAttributes, progress, cancel);
+    }
+
+    // Called once the transfer is over
+    default void close() {
+    }
+}
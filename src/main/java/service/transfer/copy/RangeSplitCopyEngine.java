@@ -0,0 +1,202 @@
+package service.transfer.copy;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import service.transfer.FileEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Copies a very large file as fixed-size ranges, several at once, with positional reads and writes.
+// The destination is sized up front and only gets the source attributes once every range is done.
+// Files under the threshold go to the regular copy engine.
+public class RangeSplitCopyEngine implements ICopyEngine {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final ICopyEngine fullCopyEngine;
+    private final long thresholdSize;
+    private final long rangeSize;
+    private final ExecutorService rangeService;
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    public RangeSplitCopyEngine(ICopyEngine fullCopyEngine, long thresholdSize, long rangeSize, int rangeThreads) {
+        this.fullCopyEngine = fullCopyEngine;
+        this.thresholdSize = thresholdSize;
+        this.rangeSize = rangeSize;
+        this.rangeService = Executors.newFixedThreadPool(rangeThreads,
+                new ThreadFactoryBuilder().setNameFormat("range-copy-thread-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public boolean copy(FileEntry source, Path destination, BasicFileAttributes destinationAttributes, CopyProgress progress,
+                        AtomicBoolean cancel) throws IOException {
+        if(source.getSize() < thresholdSize) {
+            return fullCopyEngine.copy(source, destination, destinationAttributes, progress, cancel);
+        }
+        return copyFrom(source, destination, 0, progress, cancel);
+    }
+
+    @Override
+    public boolean resume(FileEntry source, Path destination, BasicFileAttributes destinationAttributes, long offset,
+                          CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        if(source.getSize() < thresholdSize) {
+            return fullCopyEngine.resume(source, destination, destinationAttributes, offset, progress, cancel);
+        }
+        return copyFrom(source, destination, offset, progress, cancel);
+    }
+
+    @Override
+    public void close() {
+        rangeService.shutdown();
+        fullCopyEngine.close();
+    }
+
+    private boolean copyFrom(FileEntry source, Path destination, long offset, CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        if(CopyTarget.isLink(source)) {
+            return fullCopyEngine.copy(source, destination, null, progress, cancel);
+        }
+
+        boolean isComplete;
+        try (FileChannel sourceChannel = FileChannel.open(source.getPath(), StandardOpenOption.READ);
+             FileChannel destinationChannel = CopyTarget.open(destination, offset)) {
+            long size = sourceChannel.size();
+            preallocate(destinationChannel, size);
+            isComplete = copyRanges(sourceChannel, destinationChannel, destinationChannel.position(), size, progress, cancel);
+        }
+
+        if(!isComplete) {
+            if(progress.getCheckpointSize() == 0) {
+                // Nothing will carry on from here, don't leave half a file behind
+                Files.deleteIfExists(destination);
+            }
+            return false;
+        }
+        CopyAttributes.apply(source, destination);
+        return true;
+    }
+
+    // Sets the destination to its final length, so the ranges can be written in any order
+    private void preallocate(FileChannel destinationChannel, long size) throws IOException {
+        if(destinationChannel.size() > size) {
+            destinationChannel.truncate(size);
+        } else if(destinationChannel.size() < size && size > 0) {
+            destinationChannel.write(ByteBuffer.allocate(1), size - 1);
+        }
+    }
+
+    private boolean copyRanges(FileChannel sourceChannel, FileChannel destinationChannel, long offset, long size,
+                               CopyProgress progress, AtomicBoolean cancel) throws IOException {
+        // Stops the other ranges if the user cancels or one of them fails
+        AtomicBoolean stop = new AtomicBoolean(false);
+        CompletedRanges completedRanges = new CompletedRanges(destinationChannel, offset, size, progress);
+        List<Future<Boolean>> rangeFutures = Lists.newArrayList();
+        for (long start = offset; start < size; start += rangeSize) {
+            long rangeStart = start;
+            long rangeEnd = Math.min(size, start + rangeSize);
+            rangeFutures.add(rangeService.submit(() -> {
+                boolean isCopied = copyRange(sourceChannel, destinationChannel, rangeStart, rangeEnd, progress, cancel, stop);
+                if(isCopied) {
+                    completedRanges.complete(rangeStart, rangeEnd);
+                }
+                return isCopied;
+            }));
+        }
+
+        boolean isComplete = true;
+        IOException failure = null;
+        for (Future<Boolean> rangeFuture : rangeFutures) {
+            try {
+                isComplete &= rangeFuture.get();
+            } catch (ExecutionException e) {
+                stop.set(true);
+                isComplete = false;
+                if(failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                stop.set(true);
+                Thread.currentThread().interrupt();
+                isComplete = false;
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+        return isComplete;
+    }
+
+    private boolean copyRange(FileChannel sourceChannel, FileChannel destinationChannel, long start, long end, CopyProgress progress,
+                              AtomicBoolean cancel, AtomicBoolean stop) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        long position = start;
+        while (position < end) {
+            if(cancel.get() || stop.get()) {
+                return false;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int count = sourceChannel.read(buffer, position);
+            if(count < 0) {
+                // The file got shorter while copying
+                break;
+            }
+            buffer.flip();
+            long writePosition = position;
+            while (buffer.hasRemaining()) {
+                writePosition += destinationChannel.write(buffer, writePosition);
+            }
+            position += count;
+            progress.addBytesRead(count);
+            progress.addBytesWritten(count);
+        }
+        return true;
+    }
+
+    // Keeps track of how much of the start of the file is done, that's what can be resumed from
+    private static class CompletedRanges {
+        private final FileChannel destinationChannel;
+        private final long size;
+        private final CopyProgress progress;
+        // Finished ranges after a gap, start to end
+        private final Map<Long, Long> pendingRanges = Maps.newHashMap();
+        private long completedUpTo;
+        private long nextCheckpoint;
+
+        CompletedRanges(FileChannel destinationChannel, long offset, long size, CopyProgress progress) {
+            this.destinationChannel = destinationChannel;
+            this.size = size;
+            this.progress = progress;
+            this.completedUpTo = offset;
+            this.nextCheckpoint = offset + progress.getCheckpointSize();
+        }
+
+        synchronized void complete(long start, long end) throws IOException {
+            pendingRanges.put(start, end);
+            while (pendingRanges.containsKey(completedUpTo)) {
+                completedUpTo = pendingRanges.remove(completedUpTo);
+            }
+
+            if(progress.getCheckpointSize() > 0 && completedUpTo >= nextCheckpoint && completedUpTo < size) {
+                long forceStart = System.nanoTime();
+                destinationChannel.force(false);
+                progress.addFsyncTime(System.nanoTime() - forceStart);
+                progress.checkpoint(completedUpTo);
+                nextCheckpoint = completedUpTo + progress.getCheckpointSize();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package service.transfer.filter;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+// The include and exclude rules of a transfer as they were given, compiled into a ScanFilter when a scan starts.
+// Excludes win over includes. Includes and the size and age limits only apply to files, every folder that
+// isn't excluded is scanned.
+public class FilterRules {
+
+    private final List<String> excludeGlobs = Lists.newArrayList();
+    private final List<String> includeGlobs = Lists.newArrayList();
+    private final List<Pattern> excludeRegexes = Lists.newArrayList();
+    private final List<Pattern> includeRegexes = Lists.newArrayList();
+    // 0 means no limit
+    private long minSize;
+    private long maxSize;
+    // Against the time the scan starts, 0 means no limit
+    private long maxAgeMillis;
+    private long minAgeMillis;
+
+    public void addExclude(String glob) {
+        excludeGlobs.add(checkGlob(glob));
+    }
+
+    public void addInclude(String glob) {
+        includeGlobs.add(checkGlob(glob));
+    }
+
+    // Matched anywhere in the path below the source folder, throws a PatternSyntaxException if it isn't valid
+    public void addExcludeRegex(String regex) {
+        excludeRegexes.add(Pattern.compile(regex));
+    }
+
+    public void addIncludeRegex(String regex) {
+        includeRegexes.add(Pattern.compile(regex));
+    }
+
+    private static String checkGlob(String glob) {
+        if(glob.replace("/", "").isEmpty()) {
+            throw new IllegalArgumentException("Empty pattern: " + glob);
+        }
+        return glob;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(long minSize) {
+        this.minSize = Math.max(0, minSize);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    // Files last modified longer ago than this are left out
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = Math.max(0, maxAgeMillis);
+    }
+
+    // Files modified more recently than this are left out, they may still be written to
+    public long getMinAgeMillis() {
+        return minAgeMillis;
+    }
+
+    public void setMinAgeMillis(long minAgeMillis) {
+        this.minAgeMillis = Math.max(0, minAgeMillis);
+    }
+
+    public boolean isEmpty() {
+        return excludeGlobs.isEmpty() && includeGlobs.isEmpty() && excludeRegexes.isEmpty() && includeRegexes.isEmpty()
+                && minSize == 0 && maxSize == 0 && maxAgeMillis == 0 && minAgeMillis == 0;
+    }
+
+    public ScanFilter compile(long nowMillis) {
+        GlobTrie excludes = new GlobTrie();
+        excludeGlobs.forEach(excludes::add);
+        GlobTrie includes = new GlobTrie();
+        includeGlobs.forEach(includes::add);
+        return new ScanFilter(excludes, includes, combine(excludeRegexes), combine(includeRegexes), minSize, maxSize,
+                maxAgeMillis == 0 ? Long.MIN_VALUE : nowMillis - maxAgeMillis,
+                minAgeMillis == 0 ? Long.MAX_VALUE : nowMillis - minAgeMillis);
+    }
+
+    // All of them as one pattern, so a path is only searched once. Null if there are none.
+    private static Pattern combine(List<Pattern> patterns) {
+        if(patterns.isEmpty()) {
+            return null;
+        }
+        List<String> alternatives = Lists.newArrayListWithCapacity(patterns.size());
+        for (Pattern pattern : patterns) {
+            alternatives.add("(?:" + pattern.pattern() + ")");
+        }
+        return Pattern.compile(String.join("|", alternatives));
+    }
+}
@@ -0,0 +1,168 @@
+package service.transfer.filter;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Glob patterns merged into one tree of path segments, so patterns that start the same are only matched once
+// and a plain name is a single hash lookup. A pattern without a '/' matches the name at any depth,
+// one with a '/' matches from the source folder down, "**" matches any number of folders
+// and a pattern ending in '/' only matches folders.
+class GlobTrie {
+
+    private static final String ANY_DEPTH = "**";
+
+    private final Node root = new Node();
+
+    void add(String glob) {
+        boolean isFolderOnly = glob.endsWith("/");
+        String path = isFolderOnly ? glob.substring(0, glob.length() - 1) : glob;
+        if(path.startsWith("/")) {
+            path = path.substring(1);
+        } else if(!path.contains("/")) {
+            path = ANY_DEPTH + "/" + path;
+        }
+        if(path.isEmpty()) {
+            throw new IllegalArgumentException("Empty pattern: " + glob);
+        }
+
+        Node node = root;
+        for (String segment : path.split("/+")) {
+            node = node.getChild(segment);
+        }
+        node.matchesFolders = true;
+        if(!isFolderOnly) {
+            node.matchesFiles = true;
+        }
+        root.updateDepth();
+    }
+
+    boolean isEmpty() {
+        return root.depth == 0;
+    }
+
+    // The folder is given as its segments below the source folder, the entry is matched by its name in there
+    boolean matches(List<String> folderSegments, String name, boolean isFolder) {
+        return matches(root, folderSegments, 0, name, isFolder);
+    }
+
+    private boolean matches(Node node, List<String> folderSegments, int index, String name, boolean isFolder) {
+        int remaining = folderSegments.size() + 1 - index;
+        if(remaining == 0) {
+            return isFolder ? node.matchesFolders : node.matchesFiles;
+        }
+        if(remaining > node.depth) {
+            // No pattern under here is that long
+            return false;
+        }
+        if(node.anyDepth != null) {
+            // Any number of segments, none included
+            for (int i = index; i <= folderSegments.size() + 1; i++) {
+                if(matches(node.anyDepth, folderSegments, i, name, isFolder)) {
+                    return true;
+                }
+            }
+        }
+        String segment = index == folderSegments.size() ? name : folderSegments.get(index);
+        Node literal = node.literals.get(segment);
+        if(literal != null && matches(literal, folderSegments, index + 1, name, isFolder)) {
+            return true;
+        }
+        for (Wildcard wildcard : node.wildcards) {
+            if(wildcard.pattern.matcher(segment).matches() && matches(wildcard.node, folderSegments, index + 1, name, isFolder)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // One glob segment as a regular expression, '*' and '?' never match a '/'
+    static Pattern toPattern(String segment) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if(c == '*') {
+                regex.append("[^/]*");
+            } else if(c == '?') {
+                regex.append("[^/]");
+            } else if(c == '[' && segment.indexOf(']', i + 2) > 0) {
+                int end = segment.indexOf(']', i + 2);
+                String characters = segment.substring(i + 1, end);
+                if(characters.startsWith("!")) {
+                    characters = "^" + characters.substring(1);
+                }
+                regex.append('[').append(characters.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                i = end;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static boolean isWildcard(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('[') >= 0;
+    }
+
+    private static class Node {
+        private final Map<String, Node> literals = Maps.newHashMap();
+        private final List<Wildcard> wildcards = Lists.newArrayList();
+        private Node anyDepth;
+        private boolean matchesFiles;
+        private boolean matchesFolders;
+        // The most segments a pattern through here still needs, Integer.MAX_VALUE once "**" is in the way
+        private int depth;
+
+        Node getChild(String segment) {
+            if(segment.equals(ANY_DEPTH)) {
+                if(anyDepth == null) {
+                    anyDepth = new Node();
+                }
+                return anyDepth;
+            }
+            if(!isWildcard(segment)) {
+                return literals.computeIfAbsent(segment, s -> new Node());
+            }
+            for (Wildcard wildcard : wildcards) {
+                if(wildcard.glob.equals(segment)) {
+                    return wildcard.node;
+                }
+            }
+            Wildcard wildcard = new Wildcard(segment);
+            wildcards.add(wildcard);
+            return wildcard.node;
+        }
+
+        int updateDepth() {
+            depth = 0;
+            if(anyDepth != null) {
+                anyDepth.updateDepth();
+                depth = Integer.MAX_VALUE;
+            }
+            for (Node literal : literals.values()) {
+                depth = Math.max(depth, addOne(literal.updateDepth()));
+            }
+            for (Wildcard wildcard : wildcards) {
+                depth = Math.max(depth, addOne(wildcard.node.updateDepth()));
+            }
+            return depth;
+        }
+
+        private static int addOne(int depth) {
+            return depth == Integer.MAX_VALUE ? depth : depth + 1;
+        }
+    }
+
+    private static class Wildcard {
+        private final String glob;
+        private final Pattern pattern;
+        private final Node node = new Node();
+        Wildcard(String glob) {
+            this.glob = glob;
+            this.pattern = toPattern(glob);
+        }
+    }
+}
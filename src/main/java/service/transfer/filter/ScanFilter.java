@@ -0,0 +1,63 @@
+package service.transfer.filter;
+
+import service.transfer.FileEntry;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+// The compiled rules the scan checks every entry against before it does anything else with it,
+// so an excluded folder is never listed and nothing under it is looked at.
+// Entries are given as the segments of their folder below the source folder plus their own name.
+public class ScanFilter {
+
+    private final GlobTrie excludes;
+    private final GlobTrie includes;
+    // Null when there are no regular expressions
+    private final Pattern excludePattern;
+    private final Pattern includePattern;
+    private final long minSize;
+    private final long maxSize;
+    private final long minLastModified;
+    private final long maxLastModified;
+
+    ScanFilter(GlobTrie excludes, GlobTrie includes, Pattern excludePattern, Pattern includePattern, long minSize, long maxSize,
+               long minLastModified, long maxLastModified) {
+        this.excludes = excludes;
+        this.includes = includes;
+        this.excludePattern = excludePattern;
+        this.includePattern = includePattern;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.minLastModified = minLastModified;
+        this.maxLastModified = maxLastModified;
+    }
+
+    public boolean isExcludedFolder(List<String> folderSegments, FileEntry folder) {
+        return excludes.matches(folderSegments, folder.getName(), true) || isFound(excludePattern, folderSegments, folder);
+    }
+
+    public boolean isExcludedFile(List<String> folderSegments, FileEntry file) {
+        if(minSize > 0 && file.getSize() < minSize || maxSize > 0 && file.getSize() > maxSize) {
+            return true;
+        }
+        if(file.getLastModified() < minLastModified || file.getLastModified() > maxLastModified) {
+            return true;
+        }
+        if(excludes.matches(folderSegments, file.getName(), false) || isFound(excludePattern, folderSegments, file)) {
+            return true;
+        }
+        if(includes.isEmpty() && includePattern == null) {
+            return false;
+        }
+        return !includes.matches(folderSegments, file.getName(), false) && !isFound(includePattern, folderSegments, file);
+    }
+
+    // The path is only put together when there are regular expressions to search it with
+    private static boolean isFound(Pattern pattern, List<String> folderSegments, FileEntry entry) {
+        if(pattern == null) {
+            return false;
+        }
+        String path = folderSegments.isEmpty() ? entry.getName() : String.join("/", folderSegments) + "/" + entry.getName();
+        return pattern.matcher(path).find();
+    }
+}
@@ -0,0 +1,70 @@
+package service.transfer.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts durations in power of two buckets, so recording is a couple of striped adds and never allocates.
+// The percentiles are the upper bound of their bucket, good to within a factor of two.
+public class LatencyHistogram {
+
+    // Bucket i holds the durations from 2^(i-1) up to 2^i nanoseconds
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long duration = Math.max(0, nanos);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(duration)].increment();
+        count.increment();
+        totalNanos.add(duration);
+        maxNanos.accumulate(duration);
+    }
+
+    // Records the time since a System.nanoTime() taken at the start
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public double getMeanNanos() {
+        long total = count.sum();
+        return total == 0 ? 0 : (double) totalNanos.sum() / total;
+    }
+
+    // The duration the given fraction of the recordings stayed under, 0.99 for the 99th percentile
+    public long getPercentileNanos(double fraction) {
+        long total = count.sum();
+        if(total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if(seen >= target) {
+                return i == 0 ? 0 : Math.min(1L << i, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+}
@@ -0,0 +1,24 @@
+package service.transfer.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// One latency histogram for each timed phase of a run, shared by the scan and the transfer threads
+public class PhaseLatencies {
+
+    private final Map<TimedPhase, LatencyHistogram> histograms = new EnumMap<>(TimedPhase.class);
+
+    public PhaseLatencies() {
+        for (TimedPhase phase : TimedPhase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+    }
+
+    public LatencyHistogram get(TimedPhase phase) {
+        return histograms.get(phase);
+    }
+
+    public void recordSince(TimedPhase phase, long startNanos) {
+        histograms.get(phase).recordSince(startNanos);
+    }
+}
@@ -0,0 +1,59 @@
+package service.transfer.metrics;
+
+import java.beans.ConstructorProperties;
+
+// What a latency histogram looks like at one moment, in microseconds, as shown over JMX
+public class PhaseLatency {
+    private final String phase;
+    private final long count;
+    private final double meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    @ConstructorProperties({"phase", "count", "meanMicros", "p50Micros", "p99Micros", "maxMicros"})
+    public PhaseLatency(String phase, long count, double meanMicros, long p50Micros, long p99Micros, long maxMicros) {
+        this.phase = phase;
+        this.count = count;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public static PhaseLatency of(TimedPhase phase, LatencyHistogram histogram) {
+        return new PhaseLatency(phase.name().toLowerCase(), histogram.getCount(), histogram.getMeanNanos() / 1000,
+                histogram.getPercentileNanos(0.5) / 1000, histogram.getPercentileNanos(0.99) / 1000,
+                histogram.getMaxNanos() / 1000);
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: count=%s mean=%.1fus p50=%sus p99=%sus max=%sus", phase, count, meanMicros, p50Micros,
+                p99Micros, maxMicros);
+    }
+}
@@ -0,0 +1,14 @@
+package service.transfer.metrics;
+
+public enum TimedPhase {
+    // Listing a source folder
+    LIST,
+    // Reading the attributes of a destination file
+    STAT,
+    // Deciding whether a file needs to be copied
+    COMPARE,
+    // Copying a file
+    COPY,
+    // Forcing written data to the disk
+    FSYNC
+}
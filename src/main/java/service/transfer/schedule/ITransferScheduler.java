@@ -0,0 +1,26 @@
+package service.transfer.schedule;
+
+import service.transfer.FolderAndHashcode;
+
+import java.util.concurrent.TimeUnit;
+
+// Sits between the scan and the transfer threads and decides which scanned folder gets transferred next.
+// It holds a limited number of folders, the scan waits while it's full.
+public interface ITransferScheduler {
+
+    // Waits while it's full, returns false if the timeout passed first
+    boolean offer(FolderAndHashcode folder, long timeout, TimeUnit unit) throws InterruptedException;
+
+    // Waits for the next folder for this transfer worker, returns null once it's finished and empty
+    FolderAndHashcode take(int workerIndex) throws InterruptedException;
+
+    // No more folders are coming, the workers stop once the rest is taken
+    void finish();
+
+    // Drops whatever is still waiting, for when the user cancels
+    void clear();
+
+    int size();
+
+    int getCapacity();
+}
@@ -0,0 +1,107 @@
+package service.transfer.schedule;
+
+import service.transfer.FolderAndHashcode;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One queue all the transfer workers take from, in scan order or ordered by the policy
+class QueueScheduler implements ITransferScheduler {
+
+    private final SchedulingPolicy policy;
+    private final int capacity;
+    private final Queue<ScheduledFolder> folders;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private boolean isFinished;
+
+    QueueScheduler(SchedulingPolicy policy, int capacity) {
+        this.policy = policy;
+        this.capacity = capacity;
+        Comparator<ScheduledFolder> comparator = policy.getComparator();
+        this.folders = comparator == null ? new ArrayDeque<>() : new PriorityQueue<>(comparator);
+    }
+
+    @Override
+    public boolean offer(FolderAndHashcode folder, long timeout, TimeUnit unit) throws InterruptedException {
+        ScheduledFolder scheduledFolder = new ScheduledFolder(policy.orderFiles(folder), nextSequence.getAndIncrement());
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (folders.size() >= capacity) {
+                if(nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            folders.add(scheduledFolder);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public FolderAndHashcode take(int workerIndex) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (folders.isEmpty()) {
+                if(isFinished) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            ScheduledFolder folder = folders.poll();
+            notFull.signal();
+            return folder.getFolder();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void finish() {
+        lock.lock();
+        try {
+            isFinished = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            folders.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return folders.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+}
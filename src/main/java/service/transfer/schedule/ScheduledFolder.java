@@ -0,0 +1,58 @@
+package service.transfer.schedule;
+
+import service.transfer.FileEntry;
+import service.transfer.FolderAndHashcode;
+
+import java.nio.file.Path;
+
+// A folder waiting for the transfer, with what the policies order by worked out once up front
+class ScheduledFolder {
+
+    private final FolderAndHashcode folder;
+    private final long sequence;
+    private final long totalSize;
+    private final long largestFileSize;
+    private final Path path;
+    private final int depth;
+
+    ScheduledFolder(FolderAndHashcode folder, long sequence) {
+        this.folder = folder;
+        this.sequence = sequence;
+        long total = 0;
+        long largest = 0;
+        for (FileEntry file : folder.getFiles()) {
+            total += file.getSize();
+            largest = Math.max(largest, file.getSize());
+        }
+        this.totalSize = total;
+        this.largestFileSize = largest;
+        this.path = folder.getFolder().toPath();
+        // Every folder is under the same source root, so its own segments order them the same as the relative ones
+        this.depth = path.getNameCount();
+    }
+
+    FolderAndHashcode getFolder() {
+        return folder;
+    }
+
+    // The order it was scanned in
+    long getSequence() {
+        return sequence;
+    }
+
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    long getLargestFileSize() {
+        return largestFileSize;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+}
@@ -0,0 +1,85 @@
+package service.transfer.schedule;
+
+import com.google.common.collect.Lists;
+import service.transfer.FileEntry;
+import service.transfer.FolderAndHashcode;
+
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+
+// The order the scanned folders are transferred in. The scheduler only orders what the scan has handed it so far,
+// so the further the scan is ahead of the transfer the closer the order gets to the policy.
+public enum SchedulingPolicy {
+    // The order the scan found them in, the deepest folders first
+    FIFO,
+    // The folders with the least to copy first, their files smallest first, so most of the tree is usable sooner
+    SMALL_FIRST,
+    // The folders with the largest files first, their files largest first, so the run doesn't end on one long copy
+    LARGE_FIRST,
+    // By path, so the folders next to each other are written one after another
+    LOCALITY,
+    // The folders nearest the top first, so the top of the tree is complete early
+    SHALLOW_FIRST,
+    // The most deeply nested folders first, whatever order the scan found them in
+    DEEP_FIRST;
+
+    private static final Comparator<ScheduledFolder> SCAN_ORDER = Comparator.comparingLong(ScheduledFolder::getSequence);
+    private static final Comparator<FileEntry> SMALLEST_FILE = Comparator.comparingLong(FileEntry::getSize);
+
+    public ITransferScheduler createScheduler(int capacity, int workerCount, boolean isWorkStealing) {
+        if(isWorkStealing && workerCount > 1) {
+            return new WorkStealingScheduler(this, capacity, workerCount);
+        }
+        return new QueueScheduler(this, capacity);
+    }
+
+    // Null keeps the scan order
+    Comparator<ScheduledFolder> getComparator() {
+        switch (this) {
+            case SMALL_FIRST:
+                return Comparator.comparingLong(ScheduledFolder::getTotalSize).thenComparing(SCAN_ORDER);
+            case LARGE_FIRST:
+                return Comparator.comparingLong(ScheduledFolder::getLargestFileSize).reversed()
+                        .thenComparing(Comparator.comparingLong(ScheduledFolder::getTotalSize).reversed())
+                        .thenComparing(SCAN_ORDER);
+            case LOCALITY:
+                return Comparator.comparing(ScheduledFolder::getPath).thenComparing(SCAN_ORDER);
+            case SHALLOW_FIRST:
+                return Comparator.comparingInt(ScheduledFolder::getDepth).thenComparing(SCAN_ORDER);
+            case DEEP_FIRST:
+                return Comparator.comparingInt(ScheduledFolder::getDepth).reversed().thenComparing(SCAN_ORDER);
+            case FIFO:
+            default:
+                return null;
+        }
+    }
+
+    // Puts the files of the folder in the order they're copied in
+    FolderAndHashcode orderFiles(FolderAndHashcode folder) {
+        Comparator<FileEntry> fileOrder;
+        switch (this) {
+            case SMALL_FIRST:
+                fileOrder = SMALLEST_FILE;
+                break;
+            case LARGE_FIRST:
+                fileOrder = SMALLEST_FILE.reversed();
+                break;
+            default:
+                return folder;
+        }
+        List<FileEntry> files = Lists.newArrayList(folder.getFiles());
+        files.sort(fileOrder);
+        return new FolderAndHashcode(folder.getFolder(), folder.getFolderHashcode(), files);
+    }
+
+    // Which worker's queue a folder goes to when every worker has its own
+    int getWorker(ScheduledFolder folder, int workerCount) {
+        if(this == LOCALITY) {
+            // Folders in the same parent go to the same worker, so each worker keeps to its own part of the tree
+            Path parent = folder.getPath().getParent();
+            return Math.floorMod(parent == null ? 0 : parent.hashCode(), workerCount);
+        }
+        return (int) (folder.getSequence() % workerCount);
+    }
+}
@@ -0,0 +1,113 @@
+package service.transfer.schedule;
+
+import com.google.common.collect.Lists;
+import service.transfer.FolderAndHashcode;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Every transfer worker has its own queue, ordered by the policy, so the workers don't all wait on one lock.
+// A worker whose queue is empty takes from the others.
+class WorkStealingScheduler implements ITransferScheduler {
+
+    private final SchedulingPolicy policy;
+    private final int capacity;
+    private final List<Queue<ScheduledFolder>> workerFolders;
+    // Free places, the scan waits for one
+    private final Semaphore space;
+    // Folders waiting in any of the queues, a worker holding one of these is sure to find a folder somewhere.
+    // Once the scan finishes there is an extra one for every worker, one found with every queue empty means the end.
+    private final Semaphore waiting = new Semaphore(0);
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile boolean isFinished;
+
+    WorkStealingScheduler(SchedulingPolicy policy, int capacity, int workerCount) {
+        this.policy = policy;
+        this.capacity = capacity;
+        this.space = new Semaphore(capacity);
+        Comparator<ScheduledFolder> comparator = policy.getComparator();
+        this.workerFolders = Lists.newArrayListWithCapacity(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workerFolders.add(comparator == null ? new ArrayDeque<>() : new PriorityQueue<>(comparator));
+        }
+    }
+
+    @Override
+    public boolean offer(FolderAndHashcode folder, long timeout, TimeUnit unit) throws InterruptedException {
+        if(!space.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        ScheduledFolder scheduledFolder = new ScheduledFolder(policy.orderFiles(folder), nextSequence.getAndIncrement());
+        Queue<ScheduledFolder> queue = workerFolders.get(policy.getWorker(scheduledFolder, workerFolders.size()));
+        synchronized (queue) {
+            queue.add(scheduledFolder);
+        }
+        waiting.release();
+        return true;
+    }
+
+    @Override
+    public FolderAndHashcode take(int workerIndex) throws InterruptedException {
+        waiting.acquire();
+        // Its own queue first, then the others starting with the next one
+        int workerCount = workerFolders.size();
+        int ownIndex = Math.floorMod(workerIndex, workerCount);
+        while (true) {
+            for (int i = 0; i < workerCount; i++) {
+                Queue<ScheduledFolder> queue = workerFolders.get((ownIndex + i) % workerCount);
+                ScheduledFolder folder;
+                synchronized (queue) {
+                    folder = queue.poll();
+                }
+                if(folder != null) {
+                    space.release();
+                    return folder.getFolder();
+                }
+            }
+            if(isFinished) {
+                // Put back for whoever else is still waiting
+                waiting.release();
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void finish() {
+        isFinished = true;
+        waiting.release(workerFolders.size());
+    }
+
+    @Override
+    public void clear() {
+        for (Queue<ScheduledFolder> queue : workerFolders) {
+            synchronized (queue) {
+                // Only the ones no worker is already on its way to take
+                while (!queue.isEmpty() && waiting.tryAcquire()) {
+                    queue.poll();
+                    space.release();
+                }
+            }
+        }
+        if(isFinished) {
+            // It may have taken the extra ones the workers need to see the end
+            waiting.release(workerFolders.size());
+        }
+    }
+
+    @Override
+    public int size() {
+        return capacity - space.availablePermits();
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,149 @@
+package service.transfer.throttle;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import service.log.Log;
+import service.transfer.DeviceConcurrencyLimiter;
+import service.transfer.TransferProcessResult;
+import service.transfer.metrics.LatencyHistogram;
+import service.transfer.metrics.TimedPhase;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Decides how many of the transfer threads may copy at once, from the throughput and copy latency of the last second.
+// Additive increase, multiplicative decrease: one more while the throughput keeps up, half as many once the copies
+// take more than twice as long as they did at their best without the throughput getting any better.
+public class AdaptiveConcurrency {
+
+    public final static long INTERVAL_MILLIS = 1000;
+    // How much better the throughput has to get to count as better
+    private static final double IMPROVEMENT = 1.05;
+    private static final double CONGESTED_LATENCY = 2.0;
+    // The best latency is let go of slowly, the mix of file sizes changes during a run
+    private static final double BASELINE_DRIFT = 1.1;
+
+    private final int maxLimit;
+    private final TransferProcessResult transferResult;
+    private final TransferThrottle throttle;
+    private final ResizableSemaphore slots;
+    private final ScheduledExecutorService controlService;
+    private volatile int limit;
+
+    // Only touched by the control thread
+    private long lastWrittenBytes;
+    private long lastProcessedFiles;
+    private long lastCopyCount;
+    private long lastCopyNanos;
+    private long lastWaitedNanos;
+    private double lastBytesRate;
+    private double lastFilesRate;
+    private double baselineLatency;
+
+    public AdaptiveConcurrency(int maxLimit, TransferProcessResult transferResult, TransferThrottle throttle) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.transferResult = transferResult;
+        this.throttle = throttle;
+        // Starts in the middle, it finds its way up or down from there
+        this.limit = (this.maxLimit + 1) / 2;
+        this.slots = new ResizableSemaphore(limit);
+        this.controlService = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("adaptive-concurrency-thread-%d").setDaemon(true).build());
+    }
+
+    public void start() {
+        lastWaitedNanos = throttle.getWaitedNanos();
+        controlService.scheduleWithFixedDelay(this::adjustQuietly, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        controlService.shutdown();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // Waits until this thread may copy, returns false if the user cancelled meanwhile
+    public boolean acquire(AtomicBoolean cancel) {
+        return DeviceConcurrencyLimiter.acquire(slots, cancel);
+    }
+
+    public void release() {
+        slots.release();
+    }
+
+    private void adjustQuietly() {
+        try {
+            adjust();
+        } catch (RuntimeException e) {
+            // Keep the schedule going
+            e.printStackTrace();
+        }
+    }
+
+    private void adjust() {
+        double seconds = INTERVAL_MILLIS / 1000.0;
+        long writtenBytes = transferResult.getWrittenByteCount();
+        long processedFiles = transferResult.getProcessedFileCount();
+        LatencyHistogram copyLatency = transferResult.getLatencies().get(TimedPhase.COPY);
+        long copyCount = copyLatency.getCount();
+        long copyNanos = copyLatency.getTotalNanos();
+        long waitedNanos = throttle.getWaitedNanos();
+
+        double bytesRate = (writtenBytes - lastWrittenBytes) / seconds;
+        double filesRate = (processedFiles - lastProcessedFiles) / seconds;
+        long copies = copyCount - lastCopyCount;
+        double latency = copies == 0 ? 0 : (double) (copyNanos - lastCopyNanos) / copies;
+        boolean isThrottled = waitedNanos > lastWaitedNanos;
+        boolean isImproved = bytesRate > lastBytesRate * IMPROVEMENT || filesRate > lastFilesRate * IMPROVEMENT;
+
+        lastWrittenBytes = writtenBytes;
+        lastProcessedFiles = processedFiles;
+        lastCopyCount = copyCount;
+        lastCopyNanos = copyNanos;
+        lastWaitedNanos = waitedNanos;
+        lastBytesRate = bytesRate;
+        lastFilesRate = filesRate;
+
+        if(copies == 0 || isThrottled) {
+            // Nothing was copied, or the rate limit held it back, so this second says nothing about the threads
+            return;
+        }
+        baselineLatency = baselineLatency == 0 ? latency : Math.min(latency, baselineLatency * BASELINE_DRIFT);
+
+        if(latency > baselineLatency * CONGESTED_LATENCY && !isImproved) {
+            setLimit(Math.max(1, limit / 2));
+        } else if(limit < maxLimit) {
+            setLimit(limit + 1);
+        }
+    }
+
+    private synchronized void setLimit(int newLimit) {
+        if(newLimit == limit) {
+            return;
+        }
+        if(newLimit > limit) {
+            slots.release(newLimit - limit);
+        } else {
+            // The threads copying right now finish first
+            slots.reducePermits(limit - newLimit);
+        }
+        Log.debug("Copying on %s of %s transfer threads", newLimit, maxLimit);
+        limit = newLimit;
+    }
+
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
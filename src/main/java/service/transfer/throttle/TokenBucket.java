@@ -0,0 +1,84 @@
+package service.transfer.throttle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Hands out up to ratePerSecond tokens a second, with at most a second's worth saved up.
+// A request larger than what's saved up still goes through, the ones after it wait until it's paid off,
+// so the copies can keep their chunk size. The rate can be changed at any time, 0 means no limit.
+public class TokenBucket {
+
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private volatile long ratePerSecond;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private final LongAdder waitedNanos = new LongAdder();
+
+    public TokenBucket(long ratePerSecond) {
+        this.ratePerSecond = Math.max(0, ratePerSecond);
+        this.tokens = this.ratePerSecond;
+    }
+
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public synchronized void setRatePerSecond(long ratePerSecond) {
+        refill(this.ratePerSecond);
+        this.ratePerSecond = Math.max(0, ratePerSecond);
+        tokens = Math.min(tokens, this.ratePerSecond);
+    }
+
+    // How long callers have waited for tokens altogether
+    public long getWaitedNanos() {
+        return waitedNanos.sum();
+    }
+
+    // Waits until the tokens can be taken, returns false if the user cancelled meanwhile
+    public boolean acquire(long count, AtomicBoolean cancel) {
+        long waitStart = 0;
+        try {
+            while (true) {
+                long sleepNanos;
+                synchronized (this) {
+                    long rate = ratePerSecond;
+                    if(rate == 0) {
+                        return true;
+                    }
+                    refill(rate);
+                    if(tokens > 0) {
+                        tokens -= count;
+                        return true;
+                    }
+                    // Until the debt is paid off
+                    sleepNanos = (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate) + 1;
+                }
+                if(cancel.get()) {
+                    return false;
+                }
+                if(waitStart == 0) {
+                    waitStart = System.nanoTime();
+                }
+                // In short steps, so a cancel or a new rate is picked up soon
+                TimeUnit.NANOSECONDS.sleep(Math.min(sleepNanos, MAX_SLEEP_NANOS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if(waitStart != 0) {
+                waitedNanos.add(System.nanoTime() - waitStart);
+            }
+        }
+    }
+
+    private void refill(long rate) {
+        long now = System.nanoTime();
+        if(rate > 0) {
+            tokens = Math.min(rate, tokens + (double) (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+        }
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,79 @@
+package service.transfer.throttle;
+
+import service.transfer.copy.CopyProgress;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Limits how many bytes a second are read for copies and how many files a second are transferred,
+// over all the transfer threads together. The limits can be changed while a transfer runs, 0 means no limit.
+public class TransferThrottle {
+
+    private final TokenBucket bytes = new TokenBucket(0);
+    private final TokenBucket files = new TokenBucket(0);
+
+    public long getMaxBytesPerSecond() {
+        return bytes.getRatePerSecond();
+    }
+
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        bytes.setRatePerSecond(maxBytesPerSecond);
+    }
+
+    public long getMaxFilesPerSecond() {
+        return files.getRatePerSecond();
+    }
+
+    public void setMaxFilesPerSecond(long maxFilesPerSecond) {
+        files.setRatePerSecond(maxFilesPerSecond);
+    }
+
+    public boolean isLimited() {
+        return bytes.getRatePerSecond() > 0 || files.getRatePerSecond() > 0;
+    }
+
+    // How long the transfer threads have waited on the limits altogether
+    public long getWaitedNanos() {
+        return bytes.getWaitedNanos() + files.getWaitedNanos();
+    }
+
+    // Waits for the next file to be allowed, returns false if the user cancelled meanwhile
+    public boolean acquireFile(AtomicBoolean cancel) {
+        return files.acquire(1, cancel);
+    }
+
+    // The copy engines report every chunk they read, waiting there paces the next one
+    public CopyProgress throttle(CopyProgress progress, AtomicBoolean cancel) {
+        return new ThrottledCopyProgress(progress, cancel);
+    }
+
+    private class ThrottledCopyProgress implements CopyProgress {
+        private final CopyProgress progress;
+        private final AtomicBoolean cancel;
+        ThrottledCopyProgress(CopyProgress progress, AtomicBoolean cancel){
+            this.progress = progress;
+            this.cancel = cancel;
+        }
+        @Override
+        public void addBytesRead(long count) {
+            progress.addBytesRead(count);
+            // A cancel is seen by the copy before its next chunk
+            bytes.acquire(count, cancel);
+        }
+        @Override
+        public void addBytesWritten(long count) {
+            progress.addBytesWritten(count);
+        }
+        @Override
+        public void addFsyncTime(long nanos) {
+            progress.addFsyncTime(nanos);
+        }
+        @Override
+        public long getCheckpointSize() {
+            return progress.getCheckpointSize();
+        }
+        @Override
+        public void checkpoint(long position) {
+            progress.checkpoint(position);
+        }
+    }
+}
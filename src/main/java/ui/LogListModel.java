@@ -0,0 +1,70 @@
+package ui;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.List;
+
+// Keeps the last lines of the log in a ring, so a long transfer doesn't keep growing the heap.
+// Only used on the Event Dispatch Thread.
+public class LogListModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] lines;
+    private int start;
+    private int size;
+
+    public LogListModel(int capacity) {
+        this.lines = new String[capacity];
+    }
+
+    public int getCapacity() {
+        return lines.length;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return lines[(start + index) % lines.length];
+    }
+
+    public void addLines(List<String> newLines) {
+        if(newLines.isEmpty()) {
+            return;
+        }
+        int oldSize = size;
+        int removed = 0;
+        for (String line : newLines) {
+            if(size == lines.length) {
+                // Full, the oldest line makes room
+                start = (start + 1) % lines.length;
+                size--;
+                removed++;
+            }
+            lines[(start + size) % lines.length] = line;
+            size++;
+        }
+        // Lines that were added and dropped again in this batch were never shown
+        int removedOld = Math.min(removed, oldSize);
+        if(removedOld > 0) {
+            fireIntervalRemoved(this, 0, removedOld - 1);
+        }
+        int added = Math.min(newLines.size(), lines.length);
+        fireIntervalAdded(this, size - added, size - 1);
+    }
+
+    public void clear() {
+        if(size == 0) {
+            return;
+        }
+        int oldSize = size;
+        start = 0;
+        size = 0;
+        Arrays.fill(lines, null);
+        fireIntervalRemoved(this, 0, oldSize - 1);
+    }
+}
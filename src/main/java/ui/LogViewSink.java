@@ -0,0 +1,59 @@
+package ui;
+
+import com.google.common.collect.Lists;
+import service.log.ILogSink;
+
+import javax.swing.*;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Shows the log in the window. Lines wait here until the Event Dispatch Thread gets to them,
+// so however fast they come in there's only ever one update queued on it. No more lines wait than the view
+// keeps, the oldest are dropped first, the same as the view would drop them.
+public class LogViewSink implements ILogSink {
+
+    private final JList<String> logView;
+    private final LogListModel model;
+    private final Queue<String> pendingLines = new ConcurrentLinkedQueue<>();
+    // The queue's own size() walks the whole queue
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean isUpdateQueued = new AtomicBoolean(false);
+
+    public LogViewSink(JList<String> logView, LogListModel model) {
+        this.logView = logView;
+        this.model = model;
+    }
+
+    @Override
+    public void write(List<String> lines) {
+        for (String line : lines) {
+            // A list row shows one line
+            for (String row : line.split("\\R")) {
+                pendingLines.offer(row.replace("\t", "    "));
+                if(pendingCount.incrementAndGet() > model.getCapacity() && pendingLines.poll() != null) {
+                    pendingCount.decrementAndGet();
+                }
+            }
+        }
+        if(isUpdateQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::update);
+        }
+    }
+
+    private void update() {
+        isUpdateQueued.set(false);
+        List<String> rows = Lists.newArrayList();
+        String row;
+        while ((row = pendingLines.poll()) != null) {
+            pendingCount.decrementAndGet();
+            rows.add(row);
+        }
+        model.addLines(rows);
+        if(model.getSize() > 0) {
+            logView.ensureIndexIsVisible(model.getSize() - 1);
+        }
+    }
+}
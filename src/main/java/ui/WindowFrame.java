@@ -1,22 +1,26 @@
 package ui;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import service.ServiceFacade;
+import service.log.Log;
 import service.transfer.PathProcessResult;
+import service.transfer.ProgressSnapshot;
 import service.transfer.TransferProcessResult;
+import service.transfer.throttle.TransferThrottle;
 import service.validation.PathValidationResult;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 public class WindowFrame {
 
+    private static final long REFRESH_MILLIS = 250;
+    // The log view keeps this many lines, the oldest go first
+    private static final int LOG_VIEW_LINES = 100_000;
+    private static final int LOG_VIEW_WIDTH = 2000;
     private static final WindowFrame INSTANCE = new WindowFrame();
 
     private static JTextField sourceTextBox;
@@ -25,7 +29,13 @@ public class WindowFrame {
     private static JLabel fileCountLabel;
     private static JLabel transferFolderCountLabel;
     private static JLabel transferFileCountLabel;
-    private static JTextArea logMessages;
+    private static JLabel scannedSizeLabel;
+    private static JLabel transferSizeLabel;
+    private static JLabel queueDepthLabel;
+    private static JLabel throughputLabel;
+    private static JLabel bottleneckLabel;
+    private static JLabel etaLabel;
+    private static LogListModel logModel;
     private static JCheckBox logDebugMessages;
 
     // Singleton
@@ -35,6 +45,7 @@ public class WindowFrame {
         initSourceField(frame);
         initDestinationField(frame);
         initButton(frame);
+        initLimitFields(frame);
         initCountLabels(frame);
         initCancelButton(frame);
         initLogMessagesArea(frame);
@@ -75,7 +86,7 @@ public class WindowFrame {
         button.setBounds(50,150,200,50);
         button.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                logMessages.setText(null);
+                logModel.clear();
                 // Disable the button
                 button.setEnabled(false);
 
@@ -84,102 +95,128 @@ public class WindowFrame {
                 PathValidationResult result = getFacade().validatePath(sourceFolderPathText);
                 if(result.isNotValid()) {
                     for(String msg : result.getErrorMessages()){
-                        addMsg(msg + System.lineSeparator(), false);
+                        Log.info(msg);
                     }
                     button.setEnabled(true);
                     return;
                 }
                 File sourceFolderPath = result.getFile();
 
-                // Tell the service to start processing
-                PathProcessResult processResult = getFacade().startProcessingRootFolder(sourceFolderPath);
-
-                // Start a thread to keep updating the counts
-                ThreadFactory namedThreadFactory = new ThreadFactoryBuilder().setNameFormat("ui-process-result-thread-updater-%d").build();
-                final ScheduledExecutorService processResultThreadService = Executors.newSingleThreadScheduledExecutor(namedThreadFactory);
-                Runnable processResultThread = () -> {
-                    updateFolderCount(processResult.getFolderCount().intValue());
-                    updateFileCount(processResult.getFileCount().intValue());
-                    if (processResult.isDone()) {
-                        processResultThreadService.shutdown();
-                        addMsg("Shutdown processResultUIThread" + System.lineSeparator(), true);
-                    }
-                };
-                processResultThreadService.scheduleAtFixedRate(processResultThread, 0, 100, TimeUnit.MILLISECONDS);
-
                 // Validate the destination folder
                 String destinationFolderPathText = destinationTextBox.getText();
                 result = getFacade().validatePath(destinationFolderPathText);
                 if(result.isNotValid()) {
                     for(String msg : result.getErrorMessages()){
-                        addMsg(msg + System.lineSeparator(), false);
+                        Log.info(msg);
                     }
                     button.setEnabled(true);
                     return;
                 }
                 File destinationFolderPath = result.getFile();
 
-                // Tell the service to start processing
-                TransferProcessResult transferResult = getFacade().startTransferProcess(sourceFolderPath, destinationFolderPath, processResult);
-
-                // Start a thread to keep updating the counts
-                ThreadFactory transferThreadFactory = new ThreadFactoryBuilder().setNameFormat("ui-transfer-thread-updater-%d").build();
-                final ScheduledExecutorService transferResultThreadService = Executors.newSingleThreadScheduledExecutor(transferThreadFactory);
-                Runnable transferResultThread = () -> {
-                    updateTransferFolderCount(transferResult.getFolderCount().intValue());
-                    updateTransferFileCount(transferResult.getFileCount().intValue());
-                    if (transferResult.isDone()) {
-                        transferResultThreadService.shutdown();
-                        addMsg("Shutdown transferResultThreadUIUpdater" + System.lineSeparator(), true);
-                    }
-                };
-                transferResultThreadService.scheduleAtFixedRate(transferResultThread, 0, 100, TimeUnit.MILLISECONDS);
-
-
-                // Wait for the process to complete
-                try {
-                    boolean waitingForCompletion = true;
-                    while (waitingForCompletion) {
-                        waitingForCompletion = !processResultThreadService.awaitTermination(5, TimeUnit.SECONDS);
-                    }
-                    waitingForCompletion = true;
-                    while (waitingForCompletion) {
-                        waitingForCompletion = !transferResultThreadService.awaitTermination(5, TimeUnit.SECONDS);
-                    }
-                } catch (InterruptedException ex) {
-                    ex.printStackTrace();
-                }
-                addMsg("Done!" + System.lineSeparator(), false);
-                button.setEnabled(true);
+                // The transfer runs in the background, the window keeps responding meanwhile
+                new TransferWorker(sourceFolderPath, destinationFolderPath, button).execute();
             }
         });
         frame.add(button);
     }
 
+    // Starts the services and publishes a progress snapshot every refresh until the transfer is done.
+    // Snapshots published faster than the window handles them are coalesced, only the latest is shown.
+    private class TransferWorker extends SwingWorker<ProgressSnapshot, ProgressSnapshot> {
+        private final File sourceFolderPath;
+        private final File destinationFolderPath;
+        private final JButton button;
+        TransferWorker(File sourceFolderPath, File destinationFolderPath, JButton button){
+            this.sourceFolderPath = sourceFolderPath;
+            this.destinationFolderPath = destinationFolderPath;
+            this.button = button;
+        }
+        @Override
+        protected ProgressSnapshot doInBackground() throws Exception {
+            // Tell the service to start processing, the destination lets it leave out unchanged folders
+            PathProcessResult processResult = getFacade().startProcessingRootFolder(sourceFolderPath, destinationFolderPath);
+
+            // Tell the service to start transferring
+            TransferProcessResult transferResult = getFacade().startTransferProcess(sourceFolderPath, destinationFolderPath, processResult);
+
+            ProgressSnapshot snapshot = null;
+            do {
+                if(snapshot != null) {
+                    Thread.sleep(REFRESH_MILLIS);
+                }
+                snapshot = ProgressSnapshot.capture(processResult, transferResult, snapshot);
+                publish(snapshot);
+            } while (!snapshot.isDone());
+            return snapshot;
+        }
+        @Override
+        protected void process(List<ProgressSnapshot> snapshots) {
+            showProgress(snapshots.get(snapshots.size() - 1));
+        }
+        @Override
+        protected void done() {
+            try {
+                showProgress(get());
+                Log.info("Done!");
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                Log.info("Exception while transferring: %s", ex.getCause());
+                ex.getCause().printStackTrace();
+            }
+            button.setEnabled(true);
+        }
+    }
+
+    // The limits apply right away, also to a transfer that is running
+    private void initLimitFields(JFrame frame) {
+        TransferThrottle throttle = getFacade().getThrottle();
+        frame.add(createNewLabel("Max MB/s (0 = no limit): ", 300, 150, 170, 25));
+        JSpinner bytesSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1_000_000, 10));
+        bytesSpinner.setBounds(470, 150, 80, 25);
+        bytesSpinner.addChangeListener(e -> throttle.setMaxBytesPerSecond(((Number) bytesSpinner.getValue()).longValue() * 1024 * 1024));
+        frame.add(bytesSpinner);
+
+        frame.add(createNewLabel("Max Files/s (0 = no limit): ", 300, 180, 170, 25));
+        JSpinner filesSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1_000_000, 100));
+        filesSpinner.setBounds(470, 180, 80, 25);
+        filesSpinner.addChangeListener(e -> throttle.setMaxFilesPerSecond(((Number) filesSpinner.getValue()).longValue()));
+        frame.add(filesSpinner);
+
+        // Only read when a transfer starts
+        frame.add(createNewLabel("Adapt Thread Count: ", 300, 210, 170, 25));
+        JCheckBox adaptiveCheckBox = new JCheckBox();
+        adaptiveCheckBox.setBounds(470, 210, 50, 25);
+        adaptiveCheckBox.addItemListener(e -> getFacade().getSettings().setAdaptiveConcurrency(adaptiveCheckBox.isSelected()));
+        frame.add(adaptiveCheckBox);
+    }
+
     private void initCountLabels(JFrame frame) {
-        frame.add(createNewLabel("Folder Count: ", 50,250,100,30));
-        folderCountLabel = new JLabel("0");
-        folderCountLabel.setBounds(150, 250, 200, 30);
-        frame.add(folderCountLabel);
-
-        frame.add(createNewLabel("File Count: ", 50,300,100,30));
-        fileCountLabel = new JLabel("0");
-        fileCountLabel.setBounds(150, 300, 200, 30);
-        frame.add(fileCountLabel);
-
-        frame.add(createNewLabel("Transfer Folder Count: ", 350,250,150,30));
-        transferFolderCountLabel = new JLabel("0");
-        transferFolderCountLabel.setBounds(500, 250, 200, 30);
-        frame.add(transferFolderCountLabel);
-
-        frame.add(createNewLabel("Transfer File Count: ", 350,300,150,30));
-        transferFileCountLabel = new JLabel("0");
-        transferFileCountLabel.setBounds(500, 300, 200, 30);
-        frame.add(transferFileCountLabel);
+        folderCountLabel = addValueLabel(frame, "Folder Count: ", 50, 250);
+        fileCountLabel = addValueLabel(frame, "File Count: ", 50, 280);
+        scannedSizeLabel = addValueLabel(frame, "Scanned Size: ", 50, 310);
+        queueDepthLabel = addValueLabel(frame, "Queue Depth: ", 50, 340);
+        bottleneckLabel = addValueLabel(frame, "Waiting On: ", 50, 370);
+
+        transferFolderCountLabel = addValueLabel(frame, "Transfer Folder Count: ", 350, 250);
+        transferFileCountLabel = addValueLabel(frame, "Transfer File Count: ", 350, 280);
+        transferSizeLabel = addValueLabel(frame, "Transferred Size: ", 350, 310);
+        throughputLabel = addValueLabel(frame, "Throughput: ", 350, 340);
+        etaLabel = addValueLabel(frame, "Time Left: ", 350, 370);
     }
+
+    private JLabel addValueLabel(JFrame frame, String label, int x, int y) {
+        frame.add(createNewLabel(label, x, y, 150, 30));
+        JLabel valueLabel = new JLabel("0");
+        valueLabel.setBounds(x + 150, y, 200, 30);
+        frame.add(valueLabel);
+        return valueLabel;
+    }
+
     private void initCancelButton(JFrame frame) {
         JButton button = new JButton("Cancel");
-        button.setBounds(50,350,200,50);
+        button.setBounds(50,410,200,40);
         button.addActionListener(e -> getFacade().stopService());
         frame.add(button);
     }
@@ -194,37 +231,57 @@ public class WindowFrame {
         frame.add(createNewLabel("Show Debug Messages: ", 450,420,150,30));
         logDebugMessages = new JCheckBox();
         logDebugMessages.setBounds(600, 420, 50,30);
+        logDebugMessages.addItemListener(e -> Log.setDebugEnabled(logDebugMessages.isSelected()));
         frame.add(logDebugMessages);
-        logMessages = new JTextArea();
-        //logMessages.setEditable(false);
+
+        // Only the visible rows are rendered, and the fixed row height saves measuring every line
+        logModel = new LogListModel(LOG_VIEW_LINES);
+        JList<String> logMessages = new JList<>(logModel);
+        logMessages.setPrototypeCellValue("process-folder-worker-00 - Processing folder: C:\\Users");
+        logMessages.setFixedCellWidth(LOG_VIEW_WIDTH);
         JScrollPane scrollArea = new JScrollPane(logMessages);
         scrollArea.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         scrollArea.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
-        scrollArea.setBounds(50, 450, 600, 300);
+        scrollArea.setBounds(50, 460, 600, 290);
         frame.add(scrollArea);
+        Log.addSink(new LogViewSink(logMessages, logModel));
     }
 
-    synchronized public static void updateFolderCount(int valueToDisplay){
-        folderCountLabel.setText(String.valueOf(valueToDisplay));
-    }
-
-    synchronized public static void updateFileCount(int valueToDisplay){
-        fileCountLabel.setText(String.valueOf(valueToDisplay));
+    // Runs on the Event Dispatch Thread
+    private void showProgress(ProgressSnapshot snapshot) {
+        folderCountLabel.setText(String.valueOf(snapshot.getScannedFolderCount()));
+        fileCountLabel.setText(String.valueOf(snapshot.getScannedFileCount()));
+        scannedSizeLabel.setText(formatBytes(snapshot.getScannedByteCount()) + (snapshot.isScanDone() ? "" : " (scanning)"));
+        queueDepthLabel.setText(String.format("%s / %s", snapshot.getQueueSize(), snapshot.getQueueCapacity()));
+        bottleneckLabel.setText(snapshot.getBottleneck());
+
+        transferFolderCountLabel.setText(String.valueOf(snapshot.getTransferFolderCount()));
+        transferFileCountLabel.setText(String.valueOf(snapshot.getTransferFileCount()));
+        transferSizeLabel.setText(formatBytes(snapshot.getWrittenByteCount()));
+        throughputLabel.setText(String.format("%s/s, %.1f files/s", formatBytes((long) snapshot.getBytesPerSecond()),
+                snapshot.getFilesPerSecond()));
+        etaLabel.setText(formatEta(snapshot));
     }
 
-    synchronized public static void updateTransferFolderCount(int valueToDisplay){
-        transferFolderCountLabel.setText(String.valueOf(valueToDisplay));
-    }
-
-    synchronized public static void updateTransferFileCount(int valueToDisplay){
-        transferFileCountLabel.setText(String.valueOf(valueToDisplay));
+    private static String formatEta(ProgressSnapshot snapshot) {
+        long seconds = snapshot.getEtaSeconds();
+        if(seconds < 0) {
+            return "-";
+        }
+        String eta = String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+        // Folders still being scanned aren't included yet
+        return snapshot.isScanDone() ? eta : "at least " + eta;
     }
 
-    synchronized public static void addMsg(String msg, boolean isDebug){
-        if(!isDebug || logDebugMessages.isSelected()){
-            logMessages.append(msg);
+    private static String formatBytes(long bytes) {
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        double value = bytes;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
         }
-        System.out.print(msg);
+        return unit == 0 ? bytes + " B" : String.format("%.1f %s", value, units[unit]);
     }
 
     private ServiceFacade getFacade(){